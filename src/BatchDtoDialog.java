@@ -0,0 +1,118 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.openapi.ui.LabeledComponent;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiPackage;
+import com.intellij.ui.components.JBList;
+import com.intellij.ui.components.panels.VerticalLayout;
+import com.sbt.domain.plugin.node.DomainTreeNode;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates DTOs and converters for several domain nodes at once,
+ * picking the fields of each node by a {@link FieldSelectionPolicy}.
+ */
+public class BatchDtoDialog extends DialogWrapper {
+
+    private JPanel main;
+    private Project project;
+    private DefaultListModel<DomainTreeNode> nodesModel = new DefaultListModel<>();
+    private JBList<DomainTreeNode> nodes;
+    private JTextField entityPackage;
+    private JTextField dtoPackage;
+    private JComboBox<FieldSelectionPolicy> policy;
+    private JCheckBox identityContext;
+
+    public BatchDtoDialog(Project project, List<DomainTreeNode> selectedNodes) {
+        super(project);
+        this.project = project;
+        setTitle("dto batch");
+        main = new JPanel();
+        main.setLayout(new VerticalLayout(0));
+
+        nodes = new JBList<>(nodesModel);
+        nodes.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        addNodes(selectedNodes);
+
+        entityPackage = new JTextField();
+        main.add(LabeledComponent.create(entityPackage, "entity package"));
+        JButton addPackage = new JButton();
+        addPackage.setText("Add package");
+        addPackage.addActionListener(e -> addPackageNodes());
+        main.add(addPackage);
+        main.add(new JScrollPane(nodes));
+
+        dtoPackage = new JTextField();
+        main.add(LabeledComponent.create(dtoPackage, "package (empty for entity package)"));
+        policy = new JComboBox<>(FieldSelectionPolicy.values());
+        policy.setSelectedItem(FieldSelectionPolicy.SCALARS_AND_OWNING_RELATIONS);
+        main.add(LabeledComponent.create(policy, "fields"));
+        identityContext = new JCheckBox("Convert shared entities once (identity context)");
+        main.add(identityContext);
+        JButton generate = new JButton();
+        generate.setText("Generate");
+        generate.addActionListener(e -> generateDtos());
+        main.add(generate);
+
+        init();
+    }
+
+    private void addPackageNodes() {
+        PsiPackage psiPackage = JavaPsiFacade.getInstance(project).findPackage(entityPackage.getText());
+        if (psiPackage == null) {
+            Messages.showErrorDialog(project, "Package " + entityPackage.getText() + " not found", "dto");
+            return;
+        }
+        List<DomainTreeNode> packageNodes = new ArrayList<>();
+        for (PsiClass psiClass : psiPackage.getClasses()) {
+            DomainTreeNode node = DomainNodeIndex.getInstance().findNode(psiClass.getQualifiedName());
+            if (node != null) {
+                packageNodes.add(node);
+            }
+        }
+        addNodes(packageNodes);
+    }
+
+    private void addNodes(List<DomainTreeNode> added) {
+        int from = nodesModel.size();
+        for (DomainTreeNode node : added) {
+            if (!nodesModel.contains(node)) {
+                nodesModel.addElement(node);
+            }
+        }
+        if (nodesModel.size() > from) {
+            nodes.addSelectionInterval(from, nodesModel.size() - 1);
+        }
+    }
+
+    private void generateDtos() {
+        FieldSelectionPolicy selectionPolicy = (FieldSelectionPolicy) policy.getSelectedItem();
+        DtoGenerationOptions options = new DtoGenerationOptions()
+                .setIdentityContext(identityContext.isSelected());
+        List<DtoGenerator> generators = new ArrayList<>();
+        for (DomainTreeNode node : nodes.getSelectedValuesList()) {
+            String packageName = dtoPackage.getText().isEmpty()
+                    ? StringUtil.getPackageName(((PsiClass) node.getCurrentPsiClass()).getQualifiedName())
+                    : dtoPackage.getText();
+            generators.add(new DtoGenerator(node, new FieldSelection(selectionPolicy.select(node)), packageName, node.getName(), options));
+        }
+        if (!generators.isEmpty()) {
+            new BatchDtoGeneration(project, generators).queue();
+        }
+    }
+
+    @Nullable
+    @Override
+    protected JComponent createCenterPanel() {
+        return new JScrollPane(main);
+    }
+}
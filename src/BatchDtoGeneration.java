@@ -0,0 +1,166 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import com.sbt.domain.plugin.node.NodeField;
+import org.jetbrains.concurrency.CancellablePromise;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Generates DTOs and converters for many domain nodes in one command.
+ * Plans are computed in parallel read actions and written in groups,
+ * one write command per group. Every plan sees the DTOs of the whole batch,
+ * so its result does not depend on which group a related DTO is written in.
+ */
+class BatchDtoGeneration extends Task.Backgroundable {
+
+    private static final int WRITE_GROUP_SIZE = 25;
+
+    private final List<DtoGenerator> generators;
+    private final PackageDirectories directories;
+    private final ExecutorService executor;
+    private final Map<DtoGenerator, Long> planningNanos = new ConcurrentHashMap<>();
+    private final Map<DtoGenerator, Long> writingNanos = new ConcurrentHashMap<>();
+    private GenerationMetrics.Run run;
+
+    BatchDtoGeneration(Project project, List<DtoGenerator> generators) {
+        super(project, "Generating " + generators.size() + " DTOs", true);
+        this.generators = new ArrayList<>(generators);
+        directories = new PackageDirectories(project);
+        executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("DTO batch generation",
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public void run(@NotNull ProgressIndicator indicator) {
+        indicator.setIndeterminate(false);
+        GenerationMetrics metrics = GenerationMetrics.getInstance();
+        run = metrics.startRun(getTitle());
+        try {
+            List<DtoGenerator> pending = generators;
+            while (!pending.isEmpty()) {
+                pending = write(plan(pending, indicator), indicator);
+            }
+        } finally {
+            metrics.finishRun(run);
+        }
+    }
+
+    private Map<DtoGenerator, DtoGenerationPlan> plan(List<DtoGenerator> pending, ProgressIndicator indicator) {
+        indicator.setText("Planning DTOs");
+        Map<String, List<NodeField>> batchDtoFields = ReadAction.compute(() -> {
+            Map<String, List<NodeField>> dtoFields = new HashMap<>();
+            for (DtoGenerator generator : generators) {
+                generator.collectDtoFields(dtoFields);
+            }
+            return dtoFields;
+        });
+        Map<DtoGenerator, CancellablePromise<DtoGenerationPlan>> promises = new LinkedHashMap<>();
+        for (DtoGenerator generator : pending) {
+            promises.put(generator, ReadAction.nonBlocking(() -> run.within(() -> {
+                long start = System.nanoTime();
+                DtoGenerationPlan plan = generator.createPlan(directories, batchDtoFields);
+                planningNanos.merge(generator, System.nanoTime() - start, Long::sum);
+                return plan;
+            }))
+                    .inSmartMode(myProject)
+                    .withDocumentsCommitted(myProject)
+                    .expireWith(myProject)
+                    .submit(executor));
+        }
+        Map<DtoGenerator, DtoGenerationPlan> plans = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<DtoGenerator, CancellablePromise<DtoGenerationPlan>> entry : promises.entrySet()) {
+                plans.put(entry.getKey(), await(entry.getValue(), indicator));
+                indicator.setFraction(0.5 * plans.size() / promises.size());
+            }
+        } finally {
+            for (CancellablePromise<DtoGenerationPlan> promise : promises.values()) {
+                promise.cancel();
+            }
+        }
+        return plans;
+    }
+
+    /**
+     * @return generators whose plans went stale before being written
+     */
+    private List<DtoGenerator> write(Map<DtoGenerator, DtoGenerationPlan> plans, ProgressIndicator indicator) {
+        indicator.setText("Writing DTOs");
+        List<DtoGenerator> stale = new ArrayList<>();
+        List<Map.Entry<DtoGenerator, DtoGenerationPlan>> entries = new ArrayList<>(plans.entrySet());
+        for (int from = 0; from < entries.size(); from += WRITE_GROUP_SIZE) {
+            indicator.checkCanceled();
+            List<Map.Entry<DtoGenerator, DtoGenerationPlan>> group =
+                    entries.subList(from, Math.min(from + WRITE_GROUP_SIZE, entries.size()));
+            ApplicationManager.getApplication().invokeAndWait(() -> new WriteCommandAction.Simple(myProject) {
+                @Override
+                protected void run() throws Throwable {
+                    long groupStart = System.nanoTime();
+                    GeneratedSourceWriter writer = new GeneratedSourceWriter(myProject);
+                    run.within(() -> {
+                        for (Map.Entry<DtoGenerator, DtoGenerationPlan> entry : group) {
+                            if (entry.getValue().isUpToDate()) {
+                                long start = System.nanoTime();
+                                writer.write(entry.getValue());
+                                writingNanos.merge(entry.getKey(), System.nanoTime() - start, Long::sum);
+                            } else {
+                                stale.add(entry.getKey());
+                            }
+                        }
+                    });
+                    run.record(GenerationMetrics.Phase.WRITE_ACTION, System.nanoTime() - groupStart);
+                }
+            }.execute(), ModalityState.defaultModalityState());
+            indicator.setFraction(0.5 + 0.5 * (from + group.size()) / entries.size());
+        }
+        return stale;
+    }
+
+    /**
+     * Time spent planning the sources of {@code generator}, summed over re-plans of stale plans.
+     */
+    long getPlanningNanos(DtoGenerator generator) {
+        return planningNanos.getOrDefault(generator, 0L);
+    }
+
+    long getWritingNanos(DtoGenerator generator) {
+        return writingNanos.getOrDefault(generator, 0L);
+    }
+
+    private static <T> T await(CancellablePromise<T> promise, ProgressIndicator indicator) {
+        while (true) {
+            indicator.checkCanceled();
+            try {
+                return promise.blockingGet(50, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ignored) {
+                // poll cancellation again
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+            }
+        }
+    }
+
+    @Override
+    public void onThrowable(@NotNull Throwable error) {
+        Messages.showErrorDialog(myProject, error.getMessage(), "dto");
+    }
+}
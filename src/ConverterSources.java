@@ -0,0 +1,1256 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.sbt.domain.plugin.annotation.JpaAnnotation;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Texts of a DTO, its converters and the support classes they use, built from plain
+ * {@link DtoProperty} values. Independent of PSI, so the IDE dialogs and {@link DtoProcessor}
+ * generate the same code.
+ */
+final class ConverterSources {
+
+    private static final Map<String, String> PRIMITIVES = new HashMap<>();
+
+    static {
+        PRIMITIVES.put("Boolean", "boolean");
+        PRIMITIVES.put("Byte", "byte");
+        PRIMITIVES.put("Character", "char");
+        PRIMITIVES.put("Short", "short");
+        PRIMITIVES.put("Integer", "int");
+        PRIMITIVES.put("Long", "long");
+        PRIMITIVES.put("Float", "float");
+        PRIMITIVES.put("Double", "double");
+    }
+
+    private final String entityClass;
+    private final String entityName;
+    private final String dtoPackage;
+    private final String dtoName;
+    private final List<DtoProperty> properties;
+    private final DtoGenerationOptions options;
+    private final EntityLookup lookup;
+
+    /**
+     * @param entityClass qualified name of the entity
+     * @param entityName  simple name of the entity
+     */
+    ConverterSources(String entityClass, String entityName, String dtoPackage, String dtoName,
+                     List<DtoProperty> properties, DtoGenerationOptions options, EntityLookup lookup) {
+        this.entityClass = entityClass;
+        this.entityName = entityName;
+        this.dtoPackage = dtoPackage;
+        this.dtoName = dtoName;
+        this.properties = properties;
+        this.options = options;
+        this.lookup = lookup;
+    }
+
+    List<GeneratedSource> create(List<String> dtoConstructors) {
+        return create(dtoConstructors, Collections.emptyMap());
+    }
+
+    /**
+     * @param dtoConstructors   added to the DTO between its fields and accessors
+     * @param relatedProperties properties of the related DTOs planned with this one, by child type;
+     *                          used for benchmark fixtures
+     */
+    List<GeneratedSource> create(List<String> dtoConstructors, Map<String, List<DtoProperty>> relatedProperties) {
+        String dtoQualifiedName = qualifiedName(dtoPackage, dtoName + "DTO");
+
+        JavaSourceEmitter dto = options.isCompact() ? createCompactDto(dtoConstructors) : createDto(dtoConstructors);
+
+        Set<String> childConvertersToDto = new LinkedHashSet<>();
+        Set<String> supportClasses = new LinkedHashSet<>();
+        String convertToDto = createTextForConverterToDto(dtoQualifiedName, childConvertersToDto, supportClasses);
+        if (options.isCompact()) {
+            convertToDto = compactLocals() + convertToDto + "return new " + dtoQualifiedName + "(" + compactArguments() + ");\n";
+        }
+        JavaSourceEmitter converterToDto = new JavaSourceEmitter(dtoPackage,
+                "@org.springframework.stereotype.Component" +
+                        "\npublic class " + dtoName + "ConverterToDTO implements " +
+                        "com.sbt.util.Converter<" +
+                        entityClass + ", " + dtoQualifiedName + ">",
+                dtoName + "ConverterToDTO");
+        childConvertersToDto.remove(entityName);
+        for (String childType : childConvertersToDto) {
+            addConverterField(converterToDto, childType + "ConverterToDTO");
+        }
+        converterToDto
+                .member(convert(entityClass, dtoQualifiedName, "entity", options.isCompact() ? null : "dto",
+                        convertToDto, options.isFieldMask()))
+                .member(convertAll(entityClass, dtoQualifiedName, "entity", "entities", options.isFieldMask()))
+                .member(options.isStreaming() ? streamingMethods(entityClass, dtoQualifiedName, "entity", "entities") : "")
+                .member("@Override\n" + "public Class<" + entityClass + "> getSourceClass() {\n" +
+                        "return " + entityClass + ".class;\n" + "}")
+                .member("@Override\n" + "public Class<" + dtoQualifiedName + "> getDestinationClass() {\n" +
+                        "return " + dtoQualifiedName + ".class;\n" + "}");
+
+        Set<String> childConvertersToEntity = new LinkedHashSet<>();
+        String convertToEntity = creatуTextForConverterToEntity(childConvertersToEntity);
+        Set<String> persistenceFields = new LinkedHashSet<>();
+        String mergeIntoEntity = createTextForMergeIntoEntity(childConvertersToEntity, persistenceFields);
+        JavaSourceEmitter converterToEntity = new JavaSourceEmitter(dtoPackage,
+                "@org.springframework.stereotype.Component" +
+                        "\npublic class " + dtoName + "ConverterToEntity implements " +
+                        "com.sbt.util.Converter<" +
+                        dtoQualifiedName + ", " + entityClass + ">",
+                dtoName + "ConverterToEntity");
+        childConvertersToEntity.remove(entityName);
+        for (String childType : childConvertersToEntity) {
+            addConverterField(converterToEntity, childType + "ConverterToEntity");
+        }
+        if (persistenceFields.contains("entityManager")) {
+            converterToEntity.member("@" + RelationDescriptor.persistenceName("PersistenceContext") + "\n"
+                    + "private " + RelationDescriptor.persistenceName("EntityManager") + " entityManager;");
+        }
+        converterToEntity
+                .member(convert(dtoQualifiedName, entityClass, "dto", "entity", convertToEntity, false))
+                .member(convertAll(dtoQualifiedName, entityClass, "dto", "dtos", false))
+                .member(options.isStreaming() ? streamingMethods(dtoQualifiedName, entityClass, "dto", "dtos") : "")
+                .member("/**\n"
+                        + " * Copies the DTO into an already persistent entity, writing only changed values\n"
+                        + " * and reconciling child collections by identifier instead of replacing them.\n"
+                        + " */\n"
+                        + "public " + entityClass + " mergeInto(" + dtoQualifiedName + " dto, "
+                        + entityClass + " entity){\n"
+                        + mergeIntoEntity
+                        + "return entity;\n}")
+                .member("@Override\n" + "public Class<" + dtoQualifiedName + "> getSourceClass() {\n" +
+                        "return " + dtoQualifiedName + ".class;\n" + "}")
+                .member("@Override\n" + "public Class<" + entityClass + "> getDestinationClass() {\n" +
+                        "return " + entityClass + ".class;\n" + "}");
+
+        List<GeneratedSource> sources = new ArrayList<>(Arrays.asList(dto.emit(), converterToDto.emit(), converterToEntity.emit()));
+        if (supportClasses.contains(RuntimeSupportSources.LAZY_CONVERTED_LIST)) {
+            sources.add(RuntimeSupportSources.lazyConvertedList(dtoPackage));
+        }
+        if (options.isFieldMask()) {
+            sources.add(RuntimeSupportSources.fieldMask(dtoPackage));
+        }
+        if (options.isBenchmark()) {
+            sources.add(createBenchmark(dtoQualifiedName, relatedProperties, !persistenceFields.isEmpty()));
+        }
+        if (options.isJsonCodec()) {
+            sources.add(createJsonCodec(dtoQualifiedName));
+        }
+        return sources;
+    }
+
+    private JavaSourceEmitter createDto(List<String> dtoConstructors) {
+        JavaSourceEmitter dto = new JavaSourceEmitter(dtoPackage, dtoHeader("public class "), dtoName + "DTO");
+        addMaskIndexes(dto);
+        for (DtoProperty property : properties) {
+            dto.member(passPropertiesToField(property));
+        }
+        for (String constructor : dtoConstructors) {
+            dto.member(constructor);
+        }
+        for (DtoProperty property : properties) {
+            dto.member(passPropertiesToGet(property));
+            dto.member(passPropertiesToSet(property));
+        }
+        return dto;
+    }
+
+    /**
+     * Final class with final fields, set once by an all-args constructor in property order.
+     * Packed booleans are stored as bits of one {@code flags} field and unpacked by their getters.
+     */
+    private JavaSourceEmitter createCompactDto(List<String> dtoConstructors) {
+        JavaSourceEmitter dto = new JavaSourceEmitter(dtoPackage, dtoHeader("public final class "), dtoName + "DTO");
+        addMaskIndexes(dto);
+        List<DtoProperty> packed = packedFlags();
+        String flagsType = packed.size() <= 8 ? "byte" : packed.size() <= 16 ? "short" : packed.size() <= 32 ? "int" : "long";
+        String one = flagsType.equals("long") ? "1L" : "1";
+        List<String> parameters = new ArrayList<>();
+        StringBuilder assignments = new StringBuilder();
+        List<String> flags = new ArrayList<>();
+        for (DtoProperty property : properties) {
+            String field = firstLowerCase(property.getAccessor());
+            parameters.add(dtoType(property) + " " + field);
+            if (packed.contains(property)) {
+                flags.add("(" + field + " ? " + one + " << " + packed.indexOf(property) + " : 0)");
+            } else {
+                dto.member("private final " + dtoType(property) + " " + field + ";");
+                assignments.append("this.").append(field).append(" = ").append(field).append(";\n");
+            }
+        }
+        if (!packed.isEmpty()) {
+            dto.member("private final " + flagsType + " flags;");
+            String cast = flagsType.equals("byte") || flagsType.equals("short") ? "(" + flagsType + ") " : "";
+            assignments.append("this.flags = ").append(cast).append("(").append(String.join(" | ", flags)).append(");\n");
+        }
+        dto.member("public " + dtoName + "DTO(" + String.join(", ", parameters) + ") {\n"
+                + assignments
+                + "}");
+        for (String constructor : dtoConstructors) {
+            dto.member(constructor);
+        }
+        for (DtoProperty property : properties) {
+            String field = firstLowerCase(property.getAccessor());
+            String value = packed.contains(property)
+                    ? "(flags & " + one + " << " + packed.indexOf(property) + ") != 0"
+                    : field;
+            dto.member("public " + dtoType(property) + " get" + property.getAccessor() + "() {\n"
+                    + "return " + value + ";\n"
+                    + "}");
+        }
+        return dto;
+    }
+
+    /**
+     * With a JSON codec the DTO names it for Jackson, so the REST layer serializes it without introspection.
+     */
+    private String dtoHeader(String modifiers) {
+        String codec = dtoName + "DTOJsonCodec";
+        return (options.isJsonCodec()
+                ? "@com.fasterxml.jackson.databind.annotation.JsonSerialize(using = " + codec + ".Serializer.class)\n"
+                + "@com.fasterxml.jackson.databind.annotation.JsonDeserialize(using = " + codec + ".Deserializer.class)\n"
+                : "") + modifiers + dtoName + "DTO";
+    }
+
+    private void addMaskIndexes(JavaSourceEmitter dto) {
+        if (options.isFieldMask()) {
+            for (int i = 0; i < properties.size(); i++) {
+                dto.member("public static final int " + maskIndex(properties.get(i)) + " = " + i + ";");
+            }
+        }
+    }
+
+    /**
+     * Boolean properties of a compact DTO stored as bits, at most 64 and only when there are two or more.
+     */
+    private List<DtoProperty> packedFlags() {
+        List<DtoProperty> packed = new ArrayList<>();
+        if (options.isPackFlags()) {
+            for (DtoProperty property : properties) {
+                if (packed.size() < Long.SIZE && dtoType(property).equals("boolean")) {
+                    packed.add(property);
+                }
+            }
+        }
+        return packed.size() > 1 ? packed : new ArrayList<>();
+    }
+
+    /**
+     * Type of a property in the DTO: the declared type, except that compact DTOs store the wrapper
+     * of an identifier or non-nullable column as its primitive.
+     */
+    private String dtoType(DtoProperty property) {
+        if (property.isCollection()) {
+            return "java.util.Collection<" + property.getChildType() + "DTO>";
+        } else if (property.isRelation()) {
+            return property.getChildType() + "DTO";
+        }
+        String primitive = unboxedType(property);
+        return primitive != null ? primitive : property.getType();
+    }
+
+    /**
+     * The primitive a wrapper-typed scalar is stored as in a compact DTO, {@code null} when it keeps its type.
+     */
+    @Nullable
+    private String unboxedType(DtoProperty property) {
+        RelationDescriptor relation = property.getRelation();
+        if (!options.isCompact() || property.isRelation() || !relation.isId() && !relation.isNotNull()) {
+            return null;
+        }
+        String type = property.getType();
+        return PRIMITIVES.get(type.startsWith("java.lang.") ? type.substring("java.lang.".length()) : type);
+    }
+
+    /**
+     * Locals the compact DTO converter collects the constructor arguments in, starting at their defaults
+     * so properties skipped by a mask or a null check stay empty.
+     */
+    private String compactLocals() {
+        StringBuilder locals = new StringBuilder();
+        for (DtoProperty property : properties) {
+            String type = dtoType(property);
+            String value = type.equals("boolean") ? "false" : PRIMITIVES.containsValue(type) ? "0" : "null";
+            locals.append(type).append(" ").append(local(property)).append(" = ").append(value).append(";\n");
+        }
+        return locals.toString();
+    }
+
+    private String compactArguments() {
+        List<String> arguments = new ArrayList<>();
+        for (DtoProperty property : properties) {
+            arguments.add(local(property));
+        }
+        return String.join(", ", arguments);
+    }
+
+    private static String local(DtoProperty property) {
+        return firstLowerCase(property.getAccessor()) + "Value";
+    }
+
+    /**
+     * Hands a converted value to the DTO: a setter call, or for compact DTOs an assignment to the
+     * local passed to the constructor.
+     */
+    private String setDto(DtoProperty property, String value) {
+        return options.isCompact()
+                ? local(property) + " = " + value + ";\n"
+                : "dto.set" + property.getAccessor() + "(" + value + ");\n";
+    }
+
+    /**
+     * Streaming JSON writer and reader of the DTO on the Jackson token API, with one statement per
+     * property, so neither side discovers properties by reflection. Related DTOs go through their own
+     * codecs, which must be generated too, and collections are written straight from the DTO.
+     * Null properties are left out. Types other than strings, numbers, booleans and characters are
+     * handed to the codec of the generator or parser. Inverse sides are neither written nor read:
+     * converters fill them with the owner, so writing them would recurse until the stack overflows.
+     */
+    private GeneratedSource createJsonCodec(String dtoQualifiedName) {
+        String codecName = dtoName + "DTOJsonCodec";
+        String generator = "com.fasterxml.jackson.core.JsonGenerator";
+        String parser = "com.fasterxml.jackson.core.JsonParser";
+        String token = "com.fasterxml.jackson.core.JsonToken";
+        StringBuilder write = new StringBuilder();
+        StringBuilder read = new StringBuilder();
+        for (DtoProperty property : properties) {
+            if (property.isDirectional()) {
+                continue;
+            }
+            String field = firstLowerCase(property.getAccessor());
+            String value = "dto.get" + property.getAccessor() + "()";
+            String type = dtoType(property);
+            boolean primitive = PRIMITIVES.containsValue(type);
+            read.append("case \"").append(field).append("\":");
+            if (property.isCollection()) {
+                String childCodec = property.getChildType() + "DTOJsonCodec";
+                write.append("if (" + value + " != null) {\n"
+                        + "generator.writeArrayFieldStart(\"" + field + "\");\n"
+                        + "for (" + property.getChildType() + "DTO element : " + value + ") {\n"
+                        + childCodec + ".write(generator, element);\n"
+                        + "}\n"
+                        + "generator.writeEndArray();\n"
+                        + "}\n");
+                read.append(" {\n"
+                        + "java.util.List<" + property.getChildType() + "DTO> elements = new java.util.ArrayList<>();\n"
+                        + "while (parser.nextToken() != " + token + ".END_ARRAY) {\n"
+                        + "elements.add(" + childCodec + ".read(parser));\n"
+                        + "}\n"
+                        + setDto(property, "elements")
+                        + "break;\n"
+                        + "}\n");
+                continue;
+            }
+            String writeValue;
+            String readValue;
+            if (property.isRelation()) {
+                String childCodec = property.getChildType() + "DTOJsonCodec";
+                writeValue = "generator.writeFieldName(\"" + field + "\");\n"
+                        + childCodec + ".write(generator, " + value + ");\n";
+                readValue = childCodec + ".read(parser)";
+            } else {
+                String simpleType = type.startsWith("java.lang.") ? type.substring("java.lang.".length()) : type;
+                String scalar = PRIMITIVES.containsKey(simpleType) ? PRIMITIVES.get(simpleType) : simpleType;
+                switch (scalar) {
+                    case "String":
+                        writeValue = "generator.writeStringField(\"" + field + "\", " + value + ");\n";
+                        readValue = "parser.getText()";
+                        break;
+                    case "boolean":
+                        writeValue = "generator.writeBooleanField(\"" + field + "\", " + value + ");\n";
+                        readValue = "parser.getBooleanValue()";
+                        break;
+                    case "char":
+                        writeValue = "generator.writeStringField(\"" + field + "\", String.valueOf(" + value + "));\n";
+                        readValue = "parser.getText().charAt(0)";
+                        break;
+                    case "byte":
+                    case "short":
+                    case "int":
+                    case "long":
+                    case "float":
+                    case "double":
+                        writeValue = "generator.writeNumberField(\"" + field + "\", " + value + ");\n";
+                        readValue = "parser.get" + firstUpperCase(scalar) + "Value()";
+                        break;
+                    case "BigDecimal":
+                    case "java.math.BigDecimal":
+                        writeValue = "generator.writeNumberField(\"" + field + "\", " + value + ");\n";
+                        readValue = "parser.getDecimalValue()";
+                        break;
+                    default:
+                        String erasure = type.contains("<") ? type.substring(0, type.indexOf('<')) : type;
+                        writeValue = "generator.writeObjectField(\"" + field + "\", " + value + ");\n";
+                        readValue = (erasure.equals(type) ? "" : "(" + type + ") ")
+                                + "parser.readValueAs(" + erasure + ".class)";
+                }
+            }
+            write.append(primitive ? writeValue : "if (" + value + " != null) {\n" + writeValue + "}\n");
+            read.append("\n").append(setDto(property, readValue)).append("break;\n");
+        }
+        String readBody = "if (parser.getCurrentToken() == " + token + ".VALUE_NULL) {\n"
+                + "return null;\n"
+                + "}\n"
+                + "if (parser.getCurrentToken() != " + token + ".START_OBJECT) {\n"
+                + "throw new com.fasterxml.jackson.core.JsonParseException(parser, \"Expected an object for " + dtoName + "DTO\");\n"
+                + "}\n"
+                + (options.isCompact() ? compactLocals() : dtoQualifiedName + " dto = new " + dtoQualifiedName + "();\n")
+                + "while (parser.nextToken() == " + token + ".FIELD_NAME) {\n"
+                + "String field = parser.getCurrentName();\n"
+                + "if (parser.nextToken() == " + token + ".VALUE_NULL) {\n"
+                + "continue;\n"
+                + "}\n"
+                + "switch (field) {\n"
+                + read
+                + "default:\n"
+                + "parser.skipChildren();\n"
+                + "}\n"
+                + "}\n"
+                + (options.isCompact() ? "return new " + dtoQualifiedName + "(" + compactArguments() + ");\n" : "return dto;\n");
+        return new JavaSourceEmitter(dtoPackage,
+                "/**\n"
+                        + " * Reflection-free JSON form of {@link " + dtoName + "DTO}, registered on the DTO for Jackson.\n"
+                        + " */\n"
+                        + "public final class " + codecName,
+                codecName)
+                .member("private " + codecName + "() {\n}")
+                .member("public static void write(" + generator + " generator, " + dtoQualifiedName + " dto) throws java.io.IOException {\n"
+                        + "if (dto == null) {\n"
+                        + "generator.writeNull();\n"
+                        + "return;\n"
+                        + "}\n"
+                        + "generator.writeStartObject();\n"
+                        + write
+                        + "generator.writeEndObject();\n"
+                        + "}")
+                .member("/**\n"
+                        + " * Reads the object the parser is positioned at, leaving it at the closing token.\n"
+                        + " */\n"
+                        + "public static " + dtoQualifiedName + " read(" + parser + " parser) throws java.io.IOException {\n"
+                        + readBody
+                        + "}")
+                .member("public static final class Serializer extends com.fasterxml.jackson.databind.JsonSerializer<" + dtoQualifiedName + "> {\n"
+                        + "@Override\n"
+                        + "public void serialize(" + dtoQualifiedName + " dto, " + generator + " generator, "
+                        + "com.fasterxml.jackson.databind.SerializerProvider provider) throws java.io.IOException {\n"
+                        + "write(generator, dto);\n"
+                        + "}\n"
+                        + "}")
+                .member("public static final class Deserializer extends com.fasterxml.jackson.databind.JsonDeserializer<" + dtoQualifiedName + "> {\n"
+                        + "@Override\n"
+                        + "public " + dtoQualifiedName + " deserialize(" + parser + " parser, "
+                        + "com.fasterxml.jackson.databind.DeserializationContext context) throws java.io.IOException {\n"
+                        + "return read(parser);\n"
+                        + "}\n"
+                        + "}")
+                .emit();
+    }
+
+    /**
+     * JMH benchmark converting {@code size} entities, measured as throughput; {@code main} adds the
+     * GC profiler for allocation rates. Its {@code shape} parameter fills the scalars alone, one kind
+     * of relation at a time or all of them, so each relation shape is measured on its own. Related
+     * entities whose DTO is planned in the same pass get the scalars of that DTO, others stay empty.
+     * The benchmark goes to a test source root, keeping JMH off the main classpath, and wires only
+     * the converters of the DTO package. Extra benchmarks cover the masked and streaming paths when
+     * those are generated; other modes are compared by generating them into another package and
+     * running both.
+     *
+     * @param relatedProperties properties of the related DTOs planned with this one, by child type
+     * @param persistence       whether the converters need a persistence context, which the benchmark
+     *                          then backs with a factory that fails on use, as nothing it runs touches a database
+     */
+    private GeneratedSource createBenchmark(String dtoQualifiedName, Map<String, List<DtoProperty>> relatedProperties,
+                                            boolean persistence) {
+        String benchmarkName = dtoName + "ConverterBenchmark";
+        String entityManagerFactory = RelationDescriptor.persistenceName("EntityManagerFactory");
+        Set<String> shapes = new LinkedHashSet<>();
+        shapes.add("SCALARS");
+        Map<String, String> childFactories = new LinkedHashMap<>();
+        StringBuilder fixture = new StringBuilder(entityClass + " entity = new " + entityClass + "();\n"
+                + "boolean all = \"ALL\".equals(shape);\n");
+        for (DtoProperty property : properties) {
+            RelationDescriptor relation = property.getRelation();
+            String targetType = relation.getTargetType();
+            if (!property.isRelation()) {
+                String value = sampleValue(property.getType(), property.getName());
+                if (value != null && !relation.isId()) {
+                    fixture.append("entity.set").append(property.getAccessor()).append("(").append(value).append(");\n");
+                }
+                continue;
+            }
+            String shape = shape(relation);
+            if (targetType == null || shape == null) {
+                continue;
+            }
+            shapes.add(shape);
+            String childFactory = "new" + property.getChildType();
+            childFactories.computeIfAbsent(childFactory, name -> childFactory(name, targetType,
+                    relatedProperties.getOrDefault(property.getChildType(), Collections.emptyList())));
+            fixture.append("if (all || \"").append(shape).append("\".equals(shape)) {\n");
+            if (property.isCollection()) {
+                boolean set = property.getType().contains("Set<");
+                String variable = firstLowerCase(property.getAccessor());
+                fixture.append(set ? "java.util.Set<" : "java.util.List<").append(targetType).append("> ").append(variable)
+                        .append(set ? " = new java.util.HashSet<>();\n" : " = new java.util.ArrayList<>();\n")
+                        .append("for (int c = 0; c < CHILDREN; c++) {\n")
+                        .append(targetType).append(" child = ").append(childFactory).append("(i * CHILDREN + c);\n");
+                if (relation.is(JpaAnnotation.OneToMany) && relation.getMappedBy() != null) {
+                    fixture.append("child.set").append(firstUpperCase(relation.getMappedBy())).append("(entity);\n");
+                }
+                fixture.append(variable).append(".add(child);\n")
+                        .append("}\n")
+                        .append("entity.set").append(property.getAccessor()).append("(").append(variable).append(");\n");
+            } else {
+                fixture.append("entity.set").append(property.getAccessor()).append("(").append(childFactory).append("(i));\n");
+            }
+            fixture.append("}\n");
+        }
+        if (shapes.size() > 2) {
+            shapes.add("ALL");
+        }
+        JavaSourceEmitter benchmark = new JavaSourceEmitter(dtoPackage,
+                "@org.openjdk.jmh.annotations.State(org.openjdk.jmh.annotations.Scope.Benchmark)\n"
+                        + "@org.openjdk.jmh.annotations.BenchmarkMode(org.openjdk.jmh.annotations.Mode.Throughput)\n"
+                        + "@org.openjdk.jmh.annotations.OutputTimeUnit(java.util.concurrent.TimeUnit.SECONDS)\n"
+                        + "@org.openjdk.jmh.annotations.Warmup(iterations = 3)\n"
+                        + "@org.openjdk.jmh.annotations.Measurement(iterations = 5)\n"
+                        + "@org.openjdk.jmh.annotations.Fork(1)\n"
+                        + "public class " + benchmarkName,
+                benchmarkName)
+                .member("private static final int CHILDREN = 3;")
+                .member("@org.openjdk.jmh.annotations.Param({\"10\", \"1000\", \"100000\"})\n"
+                        + "public int size;")
+                .member("@org.openjdk.jmh.annotations.Param({\"" + String.join("\", \"", shapes) + "\"})\n"
+                        + "public String shape;")
+                .member("private org.springframework.context.annotation.AnnotationConfigApplicationContext context;")
+                .member("private " + dtoName + "ConverterToDTO toDto;")
+                .member("private " + dtoName + "ConverterToEntity toEntity;")
+                .member("private java.util.List<" + entityClass + "> entities;")
+                .member("private java.util.List<" + dtoQualifiedName + "> dtos;")
+                .member("@org.openjdk.jmh.annotations.Setup\n"
+                        + "public void setUp() {\n"
+                        + "context = new org.springframework.context.annotation.AnnotationConfigApplicationContext();\n"
+                        + (persistence ? "context.registerBean(" + entityManagerFactory + ".class, " + benchmarkName + "::entityManagerFactory);\n" : "")
+                        + "org.springframework.context.annotation.ClassPathBeanDefinitionScanner scanner =\n"
+                        + "new org.springframework.context.annotation.ClassPathBeanDefinitionScanner(context, false);\n"
+                        + "scanner.addIncludeFilter(new org.springframework.core.type.filter.AssignableTypeFilter(com.sbt.util.Converter.class));\n"
+                        + "scanner.scan(\"" + dtoPackage + "\");\n"
+                        + "context.refresh();\n"
+                        + "toDto = context.getBean(" + dtoName + "ConverterToDTO.class);\n"
+                        + "toEntity = context.getBean(" + dtoName + "ConverterToEntity.class);\n"
+                        + "entities = new java.util.ArrayList<>(size);\n"
+                        + "for (int i = 0; i < size; i++) {\n"
+                        + "entities.add(entity(i, shape));\n"
+                        + "}\n"
+                        + "dtos = toDto.convertAll(entities);\n"
+                        + "}")
+                .member("@org.openjdk.jmh.annotations.TearDown\n"
+                        + "public void tearDown() {\n"
+                        + "context.close();\n"
+                        + "}")
+                .member(persistence ? "private static " + entityManagerFactory + " entityManagerFactory() {\n"
+                        + "return (" + entityManagerFactory + ") java.lang.reflect.Proxy.newProxyInstance(" + entityManagerFactory + ".class.getClassLoader(),\n"
+                        + "new Class<?>[]{" + entityManagerFactory + ".class}, (proxy, method, arguments) -> {\n"
+                        + "switch (method.getName()) {\n"
+                        + "case \"equals\":\n"
+                        + "return proxy == arguments[0];\n"
+                        + "case \"hashCode\":\n"
+                        + "return System.identityHashCode(proxy);\n"
+                        + "case \"toString\":\n"
+                        + "return \"benchmark EntityManagerFactory\";\n"
+                        + "default:\n"
+                        + "throw new UnsupportedOperationException(\"The benchmark has no database: \" + method.getName());\n"
+                        + "}\n"
+                        + "});\n"
+                        + "}" : "")
+                .member("private static " + entityClass + " entity(int i, String shape) {\n"
+                        + fixture
+                        + "return entity;\n"
+                        + "}")
+                .member(String.join("\n\n", childFactories.values()))
+                .member("@org.openjdk.jmh.annotations.Benchmark\n"
+                        + "public java.util.List<" + dtoQualifiedName + "> toDto() {\n"
+                        + "return toDto.convertAll(entities);\n"
+                        + "}")
+                .member("@org.openjdk.jmh.annotations.Benchmark\n"
+                        + "public java.util.List<" + entityClass + "> toEntity() {\n"
+                        + "return toEntity.convertAll(dtos);\n"
+                        + "}");
+        if (options.isFieldMask()) {
+            benchmark.member("@org.openjdk.jmh.annotations.Benchmark\n"
+                    + "public java.util.List<" + dtoQualifiedName + "> toDtoFirstProperty() {\n"
+                    + "return toDto.convertAll(entities, " + RuntimeSupportSources.FIELD_MASK + ".of(0));\n"
+                    + "}");
+        }
+        if (options.isStreaming()) {
+            benchmark.member("@org.openjdk.jmh.annotations.Benchmark\n"
+                    + "public void toDtoStream(org.openjdk.jmh.infra.Blackhole blackhole) {\n"
+                    + "try (java.util.stream.Stream<" + dtoQualifiedName + "> stream = toDto.convertStream(entities.stream())) {\n"
+                    + "stream.forEach(blackhole::consume);\n"
+                    + "}\n"
+                    + "}");
+        }
+        return benchmark
+                .member("public static void main(String[] args) throws org.openjdk.jmh.runner.RunnerException {\n"
+                        + "new org.openjdk.jmh.runner.Runner(new org.openjdk.jmh.runner.options.OptionsBuilder()\n"
+                        + ".include(" + benchmarkName + ".class.getName())\n"
+                        + ".addProfiler(org.openjdk.jmh.profile.GCProfiler.class)\n"
+                        + ".build()).run();\n"
+                        + "}")
+                .emitTestSource();
+    }
+
+    /**
+     * Benchmark parameter value selecting the relation, {@code null} for relations the fixture leaves empty.
+     */
+    @Nullable
+    private static String shape(RelationDescriptor relation) {
+        if (relation.is(JpaAnnotation.OneToMany)) {
+            return "ONE_TO_MANY";
+        }
+        if (relation.is(JpaAnnotation.ManyToMany)) {
+            return "MANY_TO_MANY";
+        }
+        if (relation.is(JpaAnnotation.OneToOne)) {
+            return "ONE_TO_ONE";
+        }
+        return null;
+    }
+
+    /**
+     * Fixture method creating the i-th related entity with sample values for the scalars of its DTO.
+     */
+    private static String childFactory(String name, String targetType, List<DtoProperty> childProperties) {
+        StringBuilder text = new StringBuilder("private static " + targetType + " " + name + "(int i) {\n"
+                + targetType + " child = new " + targetType + "();\n");
+        for (DtoProperty property : childProperties) {
+            String value = property.isRelation() ? null : sampleValue(property.getType(), property.getName());
+            if (value != null && !property.getRelation().isId()) {
+                text.append("child.set").append(property.getAccessor()).append("(").append(value).append(");\n");
+            }
+        }
+        return text.append("return child;\n}").toString();
+    }
+
+    /**
+     * Value of the i-th fixture entity for a scalar of the given type, {@code null} for types
+     * without an obvious sample.
+     */
+    @Nullable
+    private static String sampleValue(String type, String name) {
+        switch (type.substring(type.lastIndexOf('.') + 1)) {
+            case "String":
+                return "\"" + name + "\" + i";
+            case "long":
+            case "Long":
+                return "(long) i";
+            case "int":
+            case "Integer":
+                return "i";
+            case "short":
+            case "Short":
+                return "(short) i";
+            case "byte":
+            case "Byte":
+                return "(byte) i";
+            case "double":
+            case "Double":
+                return "(double) i";
+            case "float":
+            case "Float":
+                return "(float) i";
+            case "boolean":
+            case "Boolean":
+                return "i % 2 == 0";
+            case "BigDecimal":
+                return "java.math.BigDecimal.valueOf(i)";
+            case "LocalDate":
+                return "java.time.LocalDate.ofEpochDay(i)";
+            case "LocalDateTime":
+                return "java.time.LocalDateTime.of(2000, 1, 1, 0, 0).plusSeconds(i)";
+            case "Instant":
+                return "java.time.Instant.ofEpochSecond(i)";
+            case "Date":
+                return "new java.util.Date(i)";
+            case "UUID":
+                return "new java.util.UUID(0, i)";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Expression for the converter of a related entity: {@code this} for a relation of the entity
+     * to itself, such as a category tree, since a converter injecting its own class fails at startup.
+     */
+    private String converterReference(@Nullable String childType, String suffix) {
+        if (entityName.equals(childType)) {
+            return "this";
+        }
+        return firstLowerCase(childType) + suffix + (options.isIdentityContext() ? "()" : "");
+    }
+
+    /**
+     * Child converters are injected directly, so converting a relation does not go
+     * through the {@code ConverterManager} registry for every element. With an identity context
+     * inverse sides are converted too, so converters of related entities refer to each other;
+     * they are then resolved once on first use, as Spring refuses circular references at startup.
+     */
+    private void addConverterField(JavaSourceEmitter converter, String converterClass) {
+        String field = firstLowerCase(converterClass);
+        if (!options.isIdentityContext()) {
+            converter.member("@org.springframework.beans.factory.annotation.Autowired\n private " + converterClass + " "
+                    + field + ";");
+            return;
+        }
+        converter.member("@org.springframework.beans.factory.annotation.Autowired\n"
+                        + "private org.springframework.beans.factory.ObjectProvider<" + converterClass + "> " + field + "Provider;")
+                .member("private volatile " + converterClass + " " + field + ";")
+                .member("private " + converterClass + " " + field + "() {\n"
+                        + converterClass + " converter = " + field + ";\n"
+                        + "if (converter == null) {\n"
+                        + "converter = " + field + "Provider.getObject();\n"
+                        + field + " = converter;\n"
+                        + "}\n"
+                        + "return converter;\n"
+                        + "}");
+    }
+
+    /**
+     * With an identity context the converter first looks the source up among the instances
+     * already converted during the call and registers its result before converting relations,
+     * so cycles end at the instance under construction.
+     *
+     * @param destination local the body fills and that is returned, {@code null} when the body
+     *                    creates and returns the destination itself
+     */
+    private String convert(String sourceType, String destinationType, String source, @Nullable String destination,
+                           String body, boolean masked) {
+        List<String[]> parameters = conversionParameters(masked);
+        StringBuilder text = new StringBuilder(parameters.isEmpty() ? "@Override\n" : overloads(
+                destinationType, "convert", sourceType + " " + source, source, parameters));
+        text.append("public " + destinationType + " convert(" + sourceType + " " + source + declared(parameters) + "){\n");
+        if (destination == null) {
+            return text.append(body).append("}").toString();
+        }
+        if (options.isIdentityContext()) {
+            text.append("if (" + source + " == null) {\n"
+                    + "return null;\n"
+                    + "}\n"
+                    + destinationType + " converted = (" + destinationType + ") context.get(" + source + ");\n"
+                    + "if (converted != null) {\n"
+                    + "return converted;\n"
+                    + "}\n"
+                    + destinationType + " " + destination + " = new " + destinationType + "();\n"
+                    + "context.put(" + source + ", " + destination + ");\n");
+        } else {
+            text.append(destinationType + " " + destination + " = new " + destinationType + "();\n");
+        }
+        return text.append(body)
+                .append("return " + destination + ";\n}")
+                .toString();
+    }
+
+    /**
+     * Converts a collection into a list sized up front; random access lists are walked by index.
+     */
+    private String convertAll(String sourceType, String destinationType, String source, String sources, boolean masked) {
+        List<String[]> parameters = conversionParameters(masked);
+        String mask = masked ? "mask" : null;
+        String sourcesParameter = "java.util.Collection<? extends " + sourceType + "> " + sources;
+        return overloads("java.util.List<" + destinationType + ">", "convertAll", sourcesParameter, sources, parameters)
+                + "public java.util.List<" + destinationType + "> convertAll(" + sourcesParameter + declared(parameters) + ") {\n"
+                + "java.util.List<" + destinationType + "> result = new java.util.ArrayList<>(" + sources + ".size());\n"
+                + "if (" + sources + " instanceof java.util.RandomAccess && " + sources + " instanceof java.util.List) {\n"
+                + "java.util.List<? extends " + sourceType + "> list = (java.util.List<? extends " + sourceType + ">) " + sources + ";\n"
+                + "for (int i = 0, size = list.size(); i < size; i++) {\n"
+                + "result.add(" + call("this", "convert", "list.get(i)", mask) + ");\n"
+                + "}\n"
+                + "} else {\n"
+                + "for (" + sourceType + " " + source + " : " + sources + ") {\n"
+                + "result.add(" + call("this", "convert", source, mask) + ");\n"
+                + "}\n"
+                + "}\n"
+                + "return result;\n"
+                + "}";
+    }
+
+    /**
+     * Parameters the conversion methods take after the source, as {type, name, value passed when
+     * a caller leaves the parameter out}.
+     */
+    private List<String[]> conversionParameters(boolean masked) {
+        List<String[]> parameters = new ArrayList<>();
+        if (options.isIdentityContext()) {
+            parameters.add(new String[]{"java.util.Map<Object, Object>", "context", "new java.util.IdentityHashMap<>()"});
+        }
+        if (masked) {
+            parameters.add(new String[]{RuntimeSupportSources.FIELD_MASK, "mask", RuntimeSupportSources.FIELD_MASK + ".ALL"});
+        }
+        return parameters;
+    }
+
+    private static String declared(List<String[]> parameters) {
+        StringBuilder text = new StringBuilder();
+        for (String[] parameter : parameters) {
+            text.append(", ").append(parameter[0]).append(" ").append(parameter[1]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * One overload of {@code method} per proper subset of the optional parameters, each delegating
+     * to the full signature, so converters generated with other options can still call this one.
+     * The overload without optional parameters implements the {@code Converter} method.
+     */
+    private static String overloads(String returnType, String method, String firstParameter, String firstArgument,
+                                    List<String[]> parameters) {
+        StringBuilder text = new StringBuilder();
+        for (int subset = 0; subset < (1 << parameters.size()) - 1; subset++) {
+            StringBuilder declared = new StringBuilder(firstParameter);
+            StringBuilder passed = new StringBuilder(firstArgument);
+            for (int i = 0; i < parameters.size(); i++) {
+                String[] parameter = parameters.get(i);
+                if ((subset & 1 << i) != 0) {
+                    declared.append(", ").append(parameter[0]).append(" ").append(parameter[1]);
+                    passed.append(", ").append(parameter[1]);
+                } else {
+                    passed.append(", ").append(parameter[2]);
+                }
+            }
+            text.append(subset == 0 && method.equals("convert") ? "@Override\n" : "")
+                    .append("public ").append(returnType).append(" ").append(method).append("(").append(declared).append(") {\n")
+                    .append("return ").append(method).append("(").append(passed).append(");\n")
+                    .append("}\n\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * View converting {@code source} on first access. The conversion runs without the identity
+     * context of the enclosing call, which is gone by then; capturing it would keep every object
+     * converted in that call alive for as long as the view.
+     *
+     * @param converted lambda body converting the collection named {@code elements}
+     */
+    private static String lazyView(String childType, String source, String converted) {
+        return "new " + RuntimeSupportSources.LAZY_CONVERTED_LIST + "<" + childType + ", " + childType + "DTO>("
+                + source + ", elements -> " + converted + ")";
+    }
+
+    private static String convertAllDetached(String converter, @Nullable String mask) {
+        return converter + ".convertAll(elements" + (mask != null ? ", " + mask : "") + ")";
+    }
+
+    /**
+     * Methods converting a stream or iterator element by element, so a scrolled source is never
+     * buffered. Every {@code batchSize} elements a callback runs, typically clearing the
+     * persistence context; lazy collections must then not be read after their batch.
+     */
+    private String streamingMethods(String sourceType, String destinationType, String source, String sources) {
+        return "public static final int DEFAULT_BATCH_SIZE = " + options.getBatchSize() + ";\n\n"
+                + "public java.util.stream.Stream<" + destinationType + "> convertStream(java.util.stream.Stream<? extends " + sourceType + "> " + sources + ") {\n"
+                + "return convertStream(" + sources + ", DEFAULT_BATCH_SIZE, null);\n"
+                + "}\n\n"
+                + "/**\n"
+                + " * @param afterBatch run after every {@code batchSize} converted elements, may be {@code null}\n"
+                + " */\n"
+                + "public java.util.stream.Stream<" + destinationType + "> convertStream(java.util.stream.Stream<? extends " + sourceType + "> " + sources + ", int batchSize, Runnable afterBatch) {\n"
+                + "java.util.Iterator<" + destinationType + "> iterator = convertIterator(" + sources + ".iterator(), batchSize, afterBatch);\n"
+                + "return java.util.stream.StreamSupport.stream(java.util.Spliterators.spliteratorUnknownSize(iterator, java.util.Spliterator.ORDERED), false)\n"
+                + ".onClose(" + sources + "::close);\n"
+                + "}\n\n"
+                + "/**\n"
+                + " * @param afterBatch run after every {@code batchSize} converted elements, may be {@code null}\n"
+                + " */\n"
+                + "public java.util.Iterator<" + destinationType + "> convertIterator(java.util.Iterator<? extends " + sourceType + "> " + sources + ", int batchSize, Runnable afterBatch) {\n"
+                + "if (batchSize <= 0) {\n"
+                + "throw new IllegalArgumentException(\"batchSize must be positive: \" + batchSize);\n"
+                + "}\n"
+                + "return new java.util.Iterator<" + destinationType + ">() {\n"
+                + "private int converted;\n\n"
+                + "@Override\n"
+                + "public boolean hasNext() {\n"
+                + "return " + sources + ".hasNext();\n"
+                + "}\n\n"
+                + "@Override\n"
+                + "public " + destinationType + " next() {\n"
+                + destinationType + " result = convert(" + sources + ".next());\n"
+                + "if (++converted == batchSize) {\n"
+                + "converted = 0;\n"
+                + "if (afterBatch != null) {\n"
+                + "afterBatch.run();\n"
+                + "}\n"
+                + "}\n"
+                + "return result;\n"
+                + "}\n"
+                + "};\n"
+                + "}";
+    }
+
+    /**
+     * Call of a conversion method that hands the identity context on when there is one.
+     *
+     * @param mask field mask argument, {@code null} when the called converter takes none
+     */
+    private String call(String converter, String method, String argument, @Nullable String mask) {
+        return converter + "." + method + "(" + argument + (options.isIdentityContext() ? ", context" : "")
+                + (mask != null ? ", " + mask : "") + ")";
+    }
+
+    private String call(String converter, String method, String argument) {
+        return call(converter, method, argument, null);
+    }
+
+    /**
+     * Name of the DTO constant holding the field mask index of {@code property}.
+     */
+    private static String maskIndex(DtoProperty property) {
+        return "FIELD_" + property.getAccessor().replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    private static String passPropertiesToField(DtoProperty property) {
+        if (property.isCollection()) {
+            return "private java.util.Collection<" + property.getChildType() + "DTO> "
+                    + firstLowerCase(property.getAccessor()) + ";";
+        } else if (property.isRelation()) {
+            return "private " + property.getChildType() + "DTO " + property.getName() + ";";
+        } else {
+            return "private " + property.getType() + " " + property.getName() + ";";
+        }
+    }
+
+    private static String passPropertiesToGet(DtoProperty property) {
+        String name = property.getAccessor();
+        if (property.isCollection()) {
+            return "public java.util.Collection<" + property.getChildType() + "DTO"
+                    + "> get" + name + "() {\n return " + firstLowerCase(name) + "; }\n ";
+        } else if (property.isRelation()) {
+            return "public " + property.getChildType() + "DTO get" + name + "() {\n return " + property.getName() + "; }\n ";
+        } else {
+            return "public " + property.getType() + " get" + name + "() {\n return " + property.getName() + "; }\n ";
+        }
+    }
+
+    private static String passPropertiesToSet(DtoProperty property) {
+        String name = property.getAccessor();
+        if (property.isCollection()) {
+            return "public void set" + name + "(java.util.Collection<" + property.getChildType() + "DTO> "
+                    + firstLowerCase(name) + ") {\n this." + firstLowerCase(name) + " = " + firstLowerCase(name) + "; }\n ";
+        } else if (property.isRelation()) {
+            return "public void set" + name + "(" + property.getChildType() + "DTO " + property.getName()
+                    + ") {\n this." + property.getName() + " = " + property.getName() + "; }\n ";
+        } else {
+            return "public void set" + name + "(" + property.getType() + " " + property.getName()
+                    + ") {\n this." + property.getName() + " = " + property.getName() + "; }\n ";
+        }
+    }
+
+    /**
+     * Without an identity context inverse sides are skipped and collection back-references are
+     * overwritten with the owner alone. With a context every selected relation is converted and
+     * collection back-references are left to the child converters, since an entity reachable
+     * through several owners is converted only once.
+     * Collections marked lazy are wrapped into a view that converts them on first access.
+     * With field masks every property is guarded by its mask bit, so excluded relations are
+     * not even loaded. Children of compact DTOs get no back-reference, as their owner is only
+     * constructed after them.
+     */
+    private String createTextForConverterToDto(String dtoQualifiedName, Set<String> childConverters,
+                                               Set<String> supportClasses) {
+        boolean context = options.isIdentityContext();
+        StringBuffer buffer = new StringBuffer();
+        for (DtoProperty property : properties) {
+            String name = property.getAccessor();
+            String variable = firstLowerCase(name) + "DTO";
+            String childType = property.getChildType();
+            String childConverter = converterReference(childType, "ConverterToDTO");
+            String index = dtoQualifiedName + "." + maskIndex(property);
+            String mask = options.isFieldMask() ? "mask.nested(" + index + ")" : null;
+            int start = buffer.length();
+            if (property.isRelation()) {
+                RelationDescriptor relation = property.getRelation();
+                if (property.isDirectional() && !context) {
+                    if (relation.is(JpaAnnotation.ManyToMany) || relation.is(JpaAnnotation.OneToOne)) {
+                        buffer.append(
+                                "//This is submissiv class; \n");
+                    }
+                } else if (relation.isJoinTableManyToMany() || context && relation.is(JpaAnnotation.ManyToMany)) {
+                    childConverters.add(childType);
+                    String nameDependentSuper = context || options.isCompact() ? "" : lookup.findInverseManyToMany(
+                            relation.getTargetType(), entityClass);
+                    if (property.isLazy()) {
+                        supportClasses.add(RuntimeSupportSources.LAZY_CONVERTED_LIST);
+                        String converted = nameDependentSuper.isEmpty()
+                                ? convertAllDetached(childConverter, mask)
+                                : "{\n"
+                                + "java.util.List<" + childType + "DTO> " + variable + " = " + convertAllDetached(childConverter, mask) + ";\n"
+                                + "for (int i = 0, size = " + variable + ".size(); i < size; i++) {\n"
+                                + variable + ".get(i).set" + nameDependentSuper + "(java.util.Arrays.asList(dto));\n"
+                                + "}\n"
+                                + "return " + variable + ";\n"
+                                + "}";
+                        buffer.append("if (entity.get" + name + "() != null) {\n"
+                                + setDto(property, lazyView(childType, "entity.get" + name + "()", converted))
+                                + "}\n");
+                    } else {
+                        buffer.append("if (entity.get" + name + "() != null) {\n"
+                                + "java.util.List<" + childType + "DTO> " + variable + " = " + call(childConverter, "convertAll", "entity.get" + name + "()", mask) + ";\n");
+                        if (!nameDependentSuper.isEmpty()) {
+                            buffer.append("for (int i = 0, size = " + variable + ".size(); i < size; i++) {\n"
+                                    + variable + ".get(i).set" + nameDependentSuper + "(java.util.Arrays.asList(dto));\n"
+                                    + "}\n");
+                        }
+                        buffer.append(setDto(property, variable)
+                                + "}\n");
+                    }
+                } else if (relation.is(JpaAnnotation.OneToMany)) {
+                    childConverters.add(childType);
+                    String converted;
+                    if (property.isLazy()) {
+                        supportClasses.add(RuntimeSupportSources.LAZY_CONVERTED_LIST);
+                        converted = lazyView(childType, "entity.get" + name + "()",
+                                convertAllDetached(childConverter, mask));
+                    } else {
+                        converted = call(childConverter, "convertAll", "entity.get" + name + "()", mask);
+                    }
+                    buffer.append("if (entity.get" + name + "() != null) {\n"
+                            + setDto(property, converted)
+                            + "}\n");
+                } else if (relation.is(JpaAnnotation.ManyToOne)) {
+                    buffer.append("//Place to hit you in a face \n");
+                } else if (relation.is(JpaAnnotation.OneToOne)) {
+                    childConverters.add(childType);
+                    buffer.append("if (entity.get" + name + "() != null) {\n"
+                            + childType + "DTO " + variable + " = " + call(childConverter, "convert", "entity.get" + name + "()", mask) + ";\n"
+                            + (options.isCompact() ? "" : variable + ".set" + firstUpperCase(entityName) + "(dto);\n")
+                            + setDto(property, variable)
+                            + "}\n");
+                }
+            } else {
+                String value = "entity.get" + name + "()";
+                String primitive = unboxedType(property);
+                if (primitive != null) {
+                    value = value + " != null ? " + value + " : " + (primitive.equals("boolean") ? "false" : "0");
+                }
+                buffer.append(setDto(property, value));
+            }
+            if (options.isFieldMask() && buffer.length() > start && buffer.charAt(start) != '/') {
+                buffer.insert(start, "if (mask.includes(" + index + ")) {\n").append("}\n");
+            }
+        }
+
+        return buffer.toString();
+    }
+
+    /**
+     * Mirrors {@link #createTextForConverterToDto}; single valued back-references such as
+     * {@code mappedBy} owners are always set, as JPA needs them on the owning side.
+     */
+    private String creatуTextForConverterToEntity(Set<String> childConverters) {
+        boolean context = options.isIdentityContext();
+        StringBuffer buffer = new StringBuffer();
+        for (DtoProperty property : properties) {
+            String name = property.getAccessor();
+            String variable = firstLowerCase(name);
+            String childType = property.getChildType();
+            String childConverter = converterReference(childType, "ConverterToEntity");
+            if (property.isRelation()) {
+                RelationDescriptor relation = property.getRelation();
+                if (property.isDirectional() && !context) {
+                    if (relation.is(JpaAnnotation.ManyToMany) || relation.is(JpaAnnotation.OneToOne)) {
+                        buffer.append(
+                                "//This is submissiv class; \n");
+                    }
+                } else if (relation.is(JpaAnnotation.OneToMany)) {
+                    childConverters.add(childType);
+                    buffer.append("if (dto.get" + name + "() != null) {\n"
+                            + "java.util.List<" + childType + "> " + variable + " = " + call(childConverter, "convertAll", "dto.get" + name + "()") + ";\n");
+                    if (relation.getMappedBy() != null) {
+                        buffer.append("for (int i = 0, size = " + variable + ".size(); i < size; i++) {\n"
+                                + variable + ".get(i).set" + firstUpperCase(relation.getMappedBy()) + "(entity);\n"
+                                + "}\n");
+                    }
+                    buffer.append("entity.set" + name + "(" + variable + ");\n"
+                            + "}\n");
+                } else if (relation.is(JpaAnnotation.ManyToOne)) {
+                    buffer.append("//Place to hit you in a face \n");
+                } else if (relation.isJoinTableManyToMany() || context && relation.is(JpaAnnotation.ManyToMany)) {
+                    childConverters.add(childType);
+                    String nameDependentSuper = context ? "" : lookup.findInverseManyToMany(
+                            relation.getTargetType(), entityClass);
+                    buffer.append("if (dto.get" + name + "() != null) {\n"
+                            + "java.util.List<" + childType + "> " + variable + " = " + call(childConverter, "convertAll", "dto.get" + name + "()") + ";\n");
+                    if (!nameDependentSuper.isEmpty()) {
+                        buffer.append("for (int i = 0, size = " + variable + ".size(); i < size; i++) {\n"
+                                + variable + ".get(i).set" + nameDependentSuper + "(java.util.Arrays.asList(entity));\n"
+                                + "}\n");
+                    }
+                    buffer.append("entity.set" + name + "(" + variable + ");\n"
+                            + "}\n");
+                } else if (relation.is(JpaAnnotation.OneToOne)) {
+                    childConverters.add(childType);
+                    buffer.append("if (dto.get" + name + "() != null) {\n"
+                            + childType + " " + variable + " = " + call(childConverter, "convert", "dto.get" + name + "()") + ";\n"
+                            + variable + ".set" + firstUpperCase(entityName) + "(entity);\n"
+                            + "entity.set" + name + "(" + variable + ");\n"
+                            + "}\n");
+                }
+            } else {
+                String primitive = unboxedType(property);
+                if (property.getRelation().isId() && primitive != null && !primitive.equals("boolean")) {
+                    // a compact DTO stores a missing identifier as 0, the entity needs null to stay new
+                    buffer.append("entity.set" + name + "(dto.get" + name + "() != 0 ? (" + property.getType()
+                            + ") dto.get" + name + "() : null);\n");
+                } else {
+                    buffer.append("entity.set" + name + "(dto.get" + name + "());\n");
+                }
+            }
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Accessor name of the identifier by which {@code mergeInto} matches the elements of a collection
+     * property, {@code null} when the collection is replaced instead: the related entity has no known
+     * identifier or its DTO does not carry it.
+     */
+    @Nullable
+    private String mergeIdAccessor(DtoProperty property) {
+        RelationDescriptor relation = property.getRelation();
+        if (!property.isRelation() || property.isDirectional()
+                || !relation.is(JpaAnnotation.OneToMany) && !relation.isJoinTableManyToMany()) {
+            return null;
+        }
+        String idAccessor = lookup.findIdAccessor(relation.getTargetType());
+        return idAccessor != null && lookup.hasDtoProperty(relation.getTargetType(),
+                qualifiedName(dtoPackage, property.getChildType() + "DTO"), idAccessor) ? idAccessor : null;
+    }
+
+    /**
+     * Body of {@code mergeInto(dto, entity)}. Inverse sides are left alone, as the owning side decides
+     * what is written. A relation that is {@code null} in the DTO is treated as not sent and kept.
+     * Collection elements are matched by identifier; an element with an identifier that is not in the
+     * collection yet refers to a persistent entity and is loaded as a reference, only elements without
+     * one are converted into new entities. Collections that cannot be matched by identifier are
+     * replaced as in {@code convert}.
+     *
+     * @param persistenceFields receives the names of the persistence fields the body uses
+     */
+    private String createTextForMergeIntoEntity(Set<String> childConverters, Set<String> persistenceFields) {
+        StringBuffer buffer = new StringBuffer();
+        for (DtoProperty property : properties) {
+            String name = property.getAccessor();
+            String variable = firstLowerCase(name);
+            String childType = property.getChildType();
+            String childConverter = converterReference(childType, "ConverterToEntity");
+            RelationDescriptor relation = property.getRelation();
+            if (!property.isRelation()) {
+                if (!relation.isId()) {
+                    buffer.append("if (!java.util.Objects.equals(entity.get" + name + "(), dto.get" + name + "())) {\n"
+                            + "entity.set" + name + "(dto.get" + name + "());\n"
+                            + "}\n");
+                }
+            } else if (property.isDirectional()) {
+                if (relation.is(JpaAnnotation.ManyToMany) || relation.is(JpaAnnotation.OneToOne)) {
+                    buffer.append(
+                            "//This is submissiv class; \n");
+                }
+            } else if (relation.is(JpaAnnotation.ManyToOne)) {
+                buffer.append("//Place to hit you in a face \n");
+            } else if (relation.is(JpaAnnotation.OneToMany) || relation.isJoinTableManyToMany()) {
+                childConverters.add(childType);
+                String idAccessor = mergeIdAccessor(property);
+                if (idAccessor == null) {
+                    buffer.append("if (dto.get" + name + "() != null) {\n"
+                            + "entity.set" + name + "(" + childConverter + ".convertAll(dto.get" + name + "()));\n"
+                            + "}\n");
+                    continue;
+                }
+                persistenceFields.add("entityManager");
+                String id = "get" + idAccessor + "()";
+                String element = firstLowerCase(childType);
+                // compact DTOs may hold the identifier unboxed, 0 then stands for none
+                String hasId = element + "Id != null" + (options.isCompact()
+                        ? " && !(" + element + "Id instanceof Number && ((Number) " + element + "Id).longValue() == 0)"
+                        : "");
+                String backReference = relation.is(JpaAnnotation.OneToMany) && relation.getMappedBy() != null
+                        ? element + ".set" + firstUpperCase(relation.getMappedBy()) + "(entity);\n"
+                        : "";
+                // children of a OneToMany belong to this entity and are updated in place,
+                // ManyToMany elements are shared and only their membership changes
+                String existing = relation.is(JpaAnnotation.OneToMany)
+                        ? childConverter + ".mergeInto(" + element + "DTO, " + element + ");\n"
+                        : "";
+                buffer.append("if (dto.get" + name + "() != null) {\n"
+                        + "if (entity.get" + name + "() == null) {\n"
+                        + "entity.set" + name + "(new java.util.ArrayList<>(dto.get" + name + "().size()));\n"
+                        + "}\n"
+                        + "java.util.Map<Object, " + childType + "> " + variable + "ById = new java.util.HashMap<>();\n"
+                        + "for (" + childType + " " + element + " : entity.get" + name + "()) {\n"
+                        + variable + "ById.put(" + element + "." + id + ", " + element + ");\n"
+                        + "}\n"
+                        + "java.util.Set<" + childType + "> " + variable + "Kept = java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<>());\n"
+                        + "for (" + childType + "DTO " + element + "DTO : dto.get" + name + "()) {\n"
+                        + "Object " + element + "Id = " + element + "DTO." + id + ";\n"
+                        + "boolean " + element + "HasId = " + hasId + ";\n"
+                        + childType + " " + element + " = " + element + "HasId ? " + variable + "ById.get(" + element + "Id) : null;\n"
+                        + "if (" + element + " == null) {\n"
+                        + "if (" + element + "HasId) {\n"
+                        + element + " = entityManager.getReference(" + relation.getTargetType() + ".class, " + element + "Id);\n"
+                        + existing
+                        + "} else {\n"
+                        + element + " = " + childConverter + ".convert(" + element + "DTO);\n"
+                        + "}\n"
+                        + backReference
+                        + "entity.get" + name + "().add(" + element + ");\n"
+                        + "} else {\n"
+                        + existing
+                        + "}\n"
+                        + variable + "Kept.add(" + element + ");\n"
+                        + "}\n"
+                        + "entity.get" + name + "().removeIf(element -> !" + variable + "Kept.contains(element));\n"
+                        + "}\n");
+            } else if (relation.is(JpaAnnotation.OneToOne)) {
+                childConverters.add(childType);
+                buffer.append("if (dto.get" + name + "() != null) {\n"
+                        + "if (entity.get" + name + "() == null) {\n"
+                        + childType + " " + variable + " = " + childConverter + ".convert(dto.get" + name + "());\n"
+                        + variable + ".set" + firstUpperCase(entityName) + "(entity);\n"
+                        + "entity.set" + name + "(" + variable + ");\n"
+                        + "} else {\n"
+                        + childConverter + ".mergeInto(dto.get" + name + "(), entity.get" + name + "());\n"
+                        + "}\n"
+                        + "}\n");
+            }
+        }
+        return buffer.toString();
+    }
+
+    static String firstUpperCase(String word) {
+        if (word == null || word.isEmpty()) {
+            return word;
+        }
+        return word.substring(0, 1).toUpperCase() + word.substring(1);
+    }
+
+    static String firstLowerCase(String word) {
+        if (word == null || word.isEmpty()) {
+            return word;
+        }
+        return word.substring(0, 1).toLowerCase() + word.substring(1);
+    }
+
+    static String qualifiedName(String packageName, String className) {
+        return packageName.isEmpty() ? className : packageName + "." + className;
+    }
+}
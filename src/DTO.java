@@ -1,45 +1,58 @@
 package com.sbt.domain.plugin.dialog;
 
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.roots.PackageIndex;
 import com.intellij.openapi.ui.DialogWrapper;
 import com.intellij.openapi.ui.LabeledComponent;
-import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.*;
 import com.intellij.psi.codeStyle.JavaCodeStyleManager;
-import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.ui.DocumentAdapter;
 import com.intellij.ui.components.panels.VerticalLayout;
-import com.sbt.domain.plugin.DomainStorage;
-import com.sbt.domain.plugin.PsiHelper;
-import com.sbt.domain.plugin.annotation.JpaAnnotation;
 import com.sbt.domain.plugin.node.DomainTreeNode;
 import com.sbt.domain.plugin.node.NodeField;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeWillExpandListener;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.*;
 
 public class DtoDialog extends DialogWrapper {
 
+    private static final String LOADING = "loading...";
+
     private JPanel main;
     private DomainTreeNode node;
     private JTree domainTree;
     private JTree dtoTree;
     private JTextField dtoPackage;
     private JTextField dtoName;
-    private List<NodeField> dtoFields = new ArrayList<>();
+    private JCheckBox identityContext;
+    private JCheckBox projection;
+    private JCheckBox entityGraph;
+    private JCheckBox streaming;
+    private JCheckBox fieldMask;
+    private JCheckBox benchmark;
+    private JCheckBox compact;
+    private JCheckBox packFlags;
+    private JCheckBox jsonCodec;
+    private JTextField batchSize;
+    private DefaultTreeModel domainTreeModel;
+    private DefaultTreeModel dtoTreeModel;
+    private DtoTreeNode dtoRoot;
     private Project project;
-    private JavaCodeStyleManager manager;
-    private PsiElementFactory factory;
     private PsiClass entityClass;
 
 
@@ -61,14 +74,31 @@ public class DtoDialog extends DialogWrapper {
         main.add(dtoTree);
 
         DefaultMutableTreeNode domainRoot = new DefaultMutableTreeNode(node);
-        for (NodeField field : node.getFields()) {
-            domainRoot.add(new DefaultMutableTreeNode(field));
-        }
-        DefaultTreeModel treeModel = new DefaultTreeModel(domainRoot);
-        domainTree.setModel(treeModel);
-        domainTree.updateUI();
+        addDomainFields(domainRoot, node.getFields());
+        domainTreeModel = new DefaultTreeModel(domainRoot);
+        domainTree.setModel(domainTreeModel);
+        domainTree.addTreeWillExpandListener(new TreeWillExpandListener() {
+            @Override
+            public void treeWillExpand(TreeExpansionEvent event) {
+                loadRelationFields((DefaultMutableTreeNode) event.getPath().getLastPathComponent());
+            }
+
+            @Override
+            public void treeWillCollapse(TreeExpansionEvent event) {
 
-        updateDtoTree();
+            }
+        });
+
+        dtoRoot = new DtoTreeNode(dtoName.getText() + "Dto");
+        dtoTreeModel = new DefaultTreeModel(dtoRoot);
+        dtoTree.setModel(dtoTreeModel);
+        dtoName.getDocument().addDocumentListener(new DocumentAdapter() {
+            @Override
+            protected void textChanged(DocumentEvent e) {
+                dtoRoot.setUserObject(dtoName.getText() + "Dto");
+                dtoTreeModel.nodeChanged(dtoRoot);
+            }
+        });
 
         domainTreeMouseListener();
 
@@ -85,10 +115,52 @@ public class DtoDialog extends DialogWrapper {
         dtoName = new JTextField();
         dtoName.setText(node.getName());
         dtoConfig.add(LabeledComponent.create(dtoName, "name"));
+        JButton add = new JButton();
+        add.setText("Add");
+        dtoConfig.add(add);
+        add.addActionListener(e -> addPropertiesToDto(domainTree.getSelectionPaths()));
+        JButton addAll = new JButton();
+        addAll.setText("Add all");
+        dtoConfig.add(addAll);
+        addAll.addActionListener(e -> addAllPropertiesToDto());
+        JButton remove = new JButton();
+        remove.setText("Remove");
+        dtoConfig.add(remove);
+        remove.addActionListener(e -> removePropertiesFromDto(dtoTree.getSelectionPaths()));
+        JButton lazy = new JButton();
+        lazy.setText("Lazy on/off");
+        dtoConfig.add(lazy);
+        lazy.addActionListener(e -> toggleLazy(dtoTree.getSelectionPaths()));
+        identityContext = new JCheckBox("Convert shared entities once (identity context)");
+        dtoConfig.add(identityContext);
+        projection = new JCheckBox("JPQL projection query");
+        dtoConfig.add(projection);
+        entityGraph = new JCheckBox("Entity graph fetch plan");
+        dtoConfig.add(entityGraph);
+        streaming = new JCheckBox("Streaming conversion");
+        dtoConfig.add(streaming);
+        batchSize = new JTextField();
+        batchSize.setText(String.valueOf(DtoGenerationOptions.DEFAULT_BATCH_SIZE));
+        dtoConfig.add(LabeledComponent.create(batchSize, "batch size"));
+        fieldMask = new JCheckBox("Field mask (partial conversion)");
+        dtoConfig.add(fieldMask);
+        benchmark = new JCheckBox("JMH benchmark");
+        dtoConfig.add(benchmark);
+        compact = new JCheckBox("Compact immutable DTO");
+        dtoConfig.add(compact);
+        packFlags = new JCheckBox("Pack boolean flags");
+        dtoConfig.add(packFlags);
+        jsonCodec = new JCheckBox("JSON codec");
+        dtoConfig.add(jsonCodec);
         JButton generate = new JButton();
         generate.setText("Generate");
         dtoConfig.add(generate);
         generate.addActionListener(e -> generateDto());
+        JButton diagnostics = new JButton();
+        diagnostics.setText("Diagnostics");
+        dtoConfig.add(diagnostics);
+        diagnostics.addActionListener(e -> Messages.showInfoMessage(project,
+                GenerationMetrics.getInstance().report(), "dto diagnostics"));
         return dtoConfig;
     }
 
@@ -99,357 +171,116 @@ public class DtoDialog extends DialogWrapper {
     }
 
     private void generateDto() {
-        VirtualFile[] directoriesByPackageName =
-                PackageIndex.getInstance(project)
-                        .getDirectoriesByPackageName(dtoPackage.getText(), true);
-        PsiDirectory directory = PsiManager.getInstance(project)
-                .findDirectory(directoriesByPackageName[0]);
-        PsiClass dtoClass = JavaDirectoryService.getInstance().createClass(directory, dtoName.getText() + "DTO");
-        PsiClass converterClassDto = JavaDirectoryService.getInstance().createClass(directory,
-                dtoName.getText() + "ConverterToDTO");
-        PsiClass converterClassEntity = JavaDirectoryService.getInstance().createClass(directory,
-                dtoName.getText() + "ConverterToEntity");
-        new WriteCommandAction.Simple(project, dtoClass.getContainingFile()) {
-            @Override
-            protected void run() throws Throwable {
-                writeDto(dtoClass);
-                writeConverterToDTO(converterClassDto, dtoClass);
-                writeConverterToEntity(converterClassEntity, dtoClass);
-            }
-        }.execute();
-
-    }
-
-    private void writeDto(PsiClass dtoClass) {
-        manager = JavaCodeStyleManager.getInstance(dtoClass.getProject());
-        factory = JavaPsiFacade.getInstance(dtoClass.getProject()).getElementFactory();
-
-        for (NodeField field : dtoFields) {
-            String nameOfClass = cut(field.getPropertyType());
-            String name = DomainDialog.toCamelCase(field.getName());
-            //String name = field.getPropertyType();
-            if (field.isCollection()) {
-                manager.shortenClassReferences(
-                        dtoClass.add(
-                                factory.createFieldFromText(
-                                        "private java.util.Collection<" + firstUpperCase(nameOfClass) +
-                                                "DTO" +
-                                                "> " + firstLowerCase(name) + ";"
-                                        ,
-                                        dtoClass)));
-            } else if (field.isRelation()) {
-                manager.shortenClassReferences(
-                        dtoClass.add(
-                                factory.createFieldFromText(
-                                        "private " + field.getPropertyType() + "DTO " + field.getName() + ";"
-                                        ,
-                                        dtoClass)));
-            } else {
-                manager.shortenClassReferences(
-                        dtoClass.add(
-                                factory.createFieldFromText(
-                                        "private " + field.getPropertyType() + " " + field.getName() + ";"
-                                        ,
-                                        dtoClass)));
-            }
-            manager.shortenClassReferences(
-                    dtoClass.add(
-                            factory.createMethodFromText(
-                                    passPropertiesToGet(field)
-                                    , dtoClass)));
-            manager.shortenClassReferences(
-                    dtoClass.add(
-                            factory.createMethodFromText(
-                                    passPropertiesToSet(field)
-                                    , dtoClass)));
-        }
-
+        DtoGenerationOptions options = new DtoGenerationOptions()
+                .setIdentityContext(identityContext.isSelected())
+                .setProjection(projection.isSelected())
+                .setEntityGraph(entityGraph.isSelected())
+                .setStreaming(streaming.isSelected())
+                .setFieldMask(fieldMask.isSelected())
+                .setBenchmark(benchmark.isSelected())
+                .setCompact(compact.isSelected())
+                .setPackFlags(packFlags.isSelected())
+                .setJsonCodec(jsonCodec.isSelected())
+                .setBatchSize(StringUtil.parseInt(batchSize.getText().trim(), DtoGenerationOptions.DEFAULT_BATCH_SIZE));
+        GenerationMetrics.Run run = GenerationMetrics.getInstance().startRun(dtoName.getText() + "DTO");
+        runGeneration(run, new DtoGenerator(node, dtoRoot.toSelection(), dtoPackage.getText(), dtoName.getText(),
+                options));
     }
 
-    private String passPropertiesToGet(NodeField field) {
-        StringBuffer buffer = new StringBuffer();
-        String name = DomainDialog.toCamelCase(field.getName());
-        String nameOfClass = cut(field.getPropertyType());
-        if (field.isCollection()) {
-            buffer.append("public Collection<" + firstUpperCase(nameOfClass) + "DTO"
-                    + "> get" + name + "() {\n return " + firstLowerCase(name) + "; }\n "
-            );
-        } else if (field.isRelation()) {
-            buffer.append("public " + field.getPropertyType() + "DTO get" + name + "() {\n return " + field.getName() + "; }\n "
-            );
-        } else {
-            buffer.append("public " + field.getPropertyType() + " get" + name + "() {\n return " + field.getName() + "; }\n "
-            );
-        }
-        return buffer.toString();
-    }
+    private void runGeneration(GenerationMetrics.Run run, DtoGenerator generator) {
+        new Task.Backgroundable(project, "Generating " + generator.getDtoName() + "DTO", true) {
+            private DtoGenerationPlan plan;
 
-    private String passPropertiesToSet(NodeField field) {
-        StringBuffer buffer = new StringBuffer();
-        String name = DomainDialog.toCamelCase(field.getName());
-        String nameOfClass = cut(field.getPropertyType());
-        if (field.isCollection()) {
-            buffer.append("public void " + "set" + firstUpperCase(name) + " (" + "Collection<" + firstUpperCase(nameOfClass) + "DTO"
-                    + ">" + " " + firstLowerCase(name)
-                    + ") {\n this." + firstLowerCase(name) + " = " + firstLowerCase(name) + "; }\n "
-            );
-        } else if (field.isRelation()) {
-            buffer.append("public void " + " set" + name + "(" + field.getPropertyType() + "DTO " + field.getName() +
-                    ") {\n this." + field.getName() + " = " + field.getName() + "; }\n "
-            );
-        } else {
-            buffer.append("public void " + " set" + name + "(" + field.getPropertyType() + " " + field.getName() +
-                    ") {\n this." + field.getName() + " = " + field.getName() + "; }\n "
-            );
-        }
-        return buffer.toString();
-    }
-
-    private String createTextForConverterToDto() {
-        StringBuffer buffer = new StringBuffer();
-        for (NodeField field : dtoFields) {
-            String name = DomainDialog.toCamelCase(field.getName());
-            String nameOfClass = cut(field.getPropertyType());
-            if (field.isRelation()) {
-                PsiField psiField = (PsiField) field.getCurrentPsiElement();
-                if (field.isDirectional()) {
-                    for (PsiAnnotation a : psiField.getAnnotations()) {
-                        if (a.getQualifiedName().equals(JpaAnnotation.ManyToMany.getFull())) {
-
-                            buffer.append(
-                                    "//This is submissiv class; \n");
-
-
-                        } else if (a.getQualifiedName().equals(JpaAnnotation.OneToOne.getFull())) {
-                            buffer.append(
-                                    "//This is submissiv class; \n");
-                        }
-                    }
-
-                } else {
-                    if (psiField.getAnnotation(JpaAnnotation.ManyToMany.getFull()) != null && psiField.getAnnotation(JpaAnnotation.JoinTable.getFull()) != null) {
-                        List<NodeField> fieldsDependent = DomainStorage.getInstance().getDomainTreeRoot().findNodeInTree(PsiHelper.getCollectionGenericType(psiField).getCanonicalText()).getFields();
-                        String nameDependentSuper = "";
-                        for (NodeField fieldDependent : fieldsDependent) {
-                            String nameDependent = DomainDialog.toCamelCase(fieldDependent.getName());
-                            PsiField psiFieldDependent = (PsiField) fieldDependent.getCurrentPsiElement();
-                            if (psiFieldDependent.getAnnotation(JpaAnnotation.ManyToMany.getFull()) != null) {
-                                nameDependentSuper = nameDependent;
-                            }
-                        }
-                        buffer.append(
-
-                                "java.util.List<" + firstUpperCase(nameOfClass) + "DTO> " + firstLowerCase(name) + "DTOArrayList = new java.util.ArrayList<>();"
-                                        + "for (" + firstUpperCase(nameOfClass) + " " + firstLowerCase(nameOfClass) + " : " + "entity.get" + firstUpperCase(name) + "()) \n{"
-                                        + firstUpperCase(nameOfClass) + "DTO " + firstLowerCase(nameOfClass) + "DTO = converterManager.convert(" + firstLowerCase(nameOfClass) + ", " + firstUpperCase(nameOfClass) + "DTO.class);\n"
-                                        + firstLowerCase(nameOfClass) + "DTO.set" + nameDependentSuper + "(java.util.Arrays.asList(dto)); \n"
-                                        + firstLowerCase(name) + "DTOArrayList.add(" + firstLowerCase(nameOfClass) + "DTO);}"
-                                        + "dto.set" + firstUpperCase(name) + "(" + firstLowerCase(name) + "DTOArrayList); \n");
-                    }
-                    for (PsiAnnotation a : psiField.getAnnotations()) {
-                        if (a.getQualifiedName().equals(JpaAnnotation.OneToMany.getFull())) {
-                            buffer.append(
-                                    "java.util.List<" + firstUpperCase(nameOfClass) + "DTO> " + firstLowerCase(name) + "DTOArrayList = new java.util.ArrayList<>();"
-                                            + "for (" + firstUpperCase(nameOfClass) + " " + firstLowerCase(name) + " : " + "entity.get" + firstUpperCase(name) + "()) \n{"
-                                            + firstUpperCase(nameOfClass) + "DTO " + firstLowerCase(name) + "DTO = converterManager.convert(" + firstLowerCase(name) + ", " + firstUpperCase(nameOfClass) + "DTO.class);"
-                                            + firstLowerCase(name) + "DTOArrayList.add(" + firstLowerCase(name) + "DTO); \n}");
-
-                        } else if (a.getQualifiedName().equals(JpaAnnotation.ManyToOne.getFull())) {
-                            buffer.append("//Place to hit you in a face \n");
-
-                        }
-//                        else if (a.getQualifiedName().equals(JpaAnnotation.ManyToMany.getFull())) {
-//                            if (a.getQualifiedName().equals(JpaAnnotation.JoinColumn.getFull())){
-
-
-//                            }buffer.append("//there is no JOIN_Column \n" );
-//                            String mappedByValue = null;
-//                            for (PsiNameValuePair vp: a.getParameterList().getAttributes()) {
-//                                if (vp.getName().equals("mappedBy")) mappedByValue = vp.getLiteralValue();
-//                            }
-                        //  }
-                        else if (a.getQualifiedName().equals(JpaAnnotation.OneToOne.getFull())) {
-                            buffer.append(
-                                    firstUpperCase(field.getPropertyType()) + "DTO " + firstLowerCase(name) + "DTO = converterManager.convert(entity.get" + firstUpperCase(name) + "(), " + firstUpperCase(field.getPropertyType()) + "DTO.class);\n"
-                                            + firstLowerCase(name) + "DTO.set" + firstUpperCase(getNodeNameOfClass()) + "(dto);"
-                                            + "dto.set" + firstUpperCase(name) + "(" + firstLowerCase(name) + "DTO);");
-                        }
-                    }
-                }
-            } else {
-                buffer.append("dto." + "set" + firstUpperCase(name) + "(entity.get" + firstUpperCase(name) + "()); \n "
-                );
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                PackageDirectories directories = new PackageDirectories(project);
+                plan = ReadAction.nonBlocking(() -> run.within(() -> generator.createPlan(directories)))
+                        .inSmartMode(project)
+                        .withDocumentsCommitted(project)
+                        .expireWith(project)
+                        .wrapProgress(indicator)
+                        .executeSynchronously();
             }
-        }
-
-        return buffer.toString();
-    }
 
-    private String creatуTextForConverterToEntity() {
-        StringBuffer buffer = new StringBuffer();
-        for (NodeField field : dtoFields) {
-            String name = field.getName();
-            String nameOfClass = cut(field.getPropertyType());
-            if (field.isRelation()) {
-                PsiField psiField = (PsiField) field.getCurrentPsiElement();
-                if (field.isDirectional()) {
-                    for (PsiAnnotation a : ((PsiField) field.getCurrentPsiElement()).getAnnotations()) {
-                        if (a.getQualifiedName().equals(JpaAnnotation.ManyToMany.getFull())) {
-                            buffer.append("//This is submissiv class; \n"
-                            );
-
-                        } else if (a.getQualifiedName().equals(JpaAnnotation.OneToOne.getFull())) {
-                            buffer.append(
-                                    "//This is submissiv class; \n");
-                        }
-                    }
-                } else {
-                    for (PsiAnnotation a : ((PsiField) field.getCurrentPsiElement()).getAnnotations()) {
-                        if (a.getQualifiedName().equals(JpaAnnotation.OneToMany.getFull())) {
-                            String mappedByValue = null;
-                            for (PsiNameValuePair vp : a.getParameterList().getAttributes()) {
-                                if (vp.getName().equals("mappedBy")) mappedByValue = vp.getLiteralValue();
-                            }
-                            buffer.append(
-                                    "java.util.List<" + firstUpperCase(nameOfClass) + "> " + firstLowerCase(nameOfClass) + "ArrayList = new java.util.ArrayList<>();"
-                                            + "for (" + firstUpperCase(nameOfClass) + "DTO " + firstLowerCase(nameOfClass) + "DTO : " + "dto.get" + firstUpperCase(name) + "()) \n{"
-                                            + firstUpperCase(nameOfClass) + " " + firstLowerCase(nameOfClass) + " = converterManager.convert(" + firstLowerCase(nameOfClass) + "DTO, " + firstUpperCase(nameOfClass) + ".class);\n"
-                                            + firstLowerCase(nameOfClass) + ".set" + firstUpperCase(mappedByValue) + "(entity);"
-                                            + firstLowerCase(nameOfClass) + "ArrayList.add(" + firstLowerCase(nameOfClass) + "); \n}"
-                                            + "entity.set" + firstUpperCase(name) + "(" + firstLowerCase(nameOfClass) + "ArrayList);"
-                            );
-
-                        } else if (a.getQualifiedName().equals(JpaAnnotation.ManyToOne.getFull())) {
-                            buffer.append("//Place to hit you in a face \n");
-
-                        } else if (psiField.getAnnotation(JpaAnnotation.ManyToMany.getFull()) != null && psiField.getAnnotation(JpaAnnotation.JoinTable.getFull()) != null) {
-                            List<NodeField> fieldsDependent = DomainStorage.getInstance().getDomainTreeRoot().findNodeInTree(PsiHelper.getCollectionGenericType(psiField).getCanonicalText()).getFields();
-                            String nameDependentSuper = "";
-                            for (NodeField fieldDependent : fieldsDependent) {
-                                String nameDependent = DomainDialog.toCamelCase(fieldDependent.getName());
-                                PsiField psiFieldDependent = (PsiField) fieldDependent.getCurrentPsiElement();
-                                if (psiFieldDependent.getAnnotation(JpaAnnotation.ManyToMany.getFull()) != null) {
-                                    nameDependentSuper = nameDependent;
-                                }
-                            }
-                            buffer.append(
-                                    "java.util.List<" + firstUpperCase(nameOfClass) + "> " + firstLowerCase(name) + "ArrayList = new java.util.ArrayList<>();"
-                                            + "for (" + firstUpperCase(nameOfClass) + "DTO " + firstLowerCase(nameOfClass) + "DTO : " + "dto.get" + firstUpperCase(name) + "()) \n{"
-                                            + firstUpperCase(nameOfClass) + " " + firstLowerCase(nameOfClass) + " = converterManager.convert(" + firstLowerCase(nameOfClass) + "DTO, " + firstUpperCase(nameOfClass) + ".class);\n"
-                                            + firstLowerCase(nameOfClass) + ".set" + nameDependentSuper + "(java.util.Arrays.asList(entity)); \n"
-                                            + firstLowerCase(name) + "ArrayList.add(" + firstLowerCase(nameOfClass) + ");} \n"
-                                            + "entity.set" + firstUpperCase(name) + "(" + firstLowerCase(name) + "ArrayList); \n"
-                            );
-
-                        } else if (a.getQualifiedName().equals(JpaAnnotation.OneToOne.getFull())) {
-                            buffer.append(
-                                    firstUpperCase(name) + " " + firstLowerCase(name) + " = converterManager.convert(dto.get" + firstUpperCase(name) + "(), " + firstUpperCase(name) + ".class);\n"
-                                            + firstLowerCase(name) + ".set" + firstUpperCase(getNodeNameOfClass()) + "(entity);"
-                                            + "entity.set" + firstUpperCase(name) + "(" + firstLowerCase(name) + ");"
-                            );
-                        }
-
-                    }
+            @Override
+            public void onSuccess() {
+                if (!plan.isUpToDate()) {
+                    runGeneration(run, generator);
+                    return;
+                }
+                try {
+                    applyGenerationPlan(run, plan);
+                } finally {
+                    GenerationMetrics.getInstance().finishRun(run);
                 }
-            } else {
-                buffer.append("entity." + "set" + firstUpperCase(name) + "(dto.get" + firstUpperCase(name) + "()); \n "
-                );
             }
-        }
-        return buffer.toString();
-    }
 
+            @Override
+            public void onCancel() {
+                GenerationMetrics.getInstance().finishRun(run);
+            }
 
-    private void writeConverterToDTO(PsiClass convertorClass, PsiClass dtoClass) {
-        PsiClass classFromText = factory.createClassFromText("@org.springframework.stereotype.Component" +
-                "\n public class " + dtoName.getText() + "ConverterToDTO implements " +
-                "com.sbt.util.Converter<" +
-                getNodeClassFullName() + ", " + dtoClass.getQualifiedName()
-                + "> {\n\n}", null);
-        convertorClass = (PsiClass) convertorClass.replace(
-                PsiTreeUtil.findChildOfType(classFromText, PsiClass.class));
-        manager.shortenClassReferences(convertorClass);
-        manager.shortenClassReferences(
-                convertorClass.add(
-                        factory.createFieldFromText(
-                                "@org.springframework.beans.factory.annotation.Autowired\n com.sbt.util.ConverterManager converterManager;"
-                                , convertorClass)));
-        convertorClass.add(
-                factory.createMethodFromText(
-                        "@Override\n" + "public " + dtoClass.getQualifiedName() + " convert(" + getNodeClassFullName() + " entity){\n"
-                                + dtoClass.getQualifiedName() + " dto = new " + dtoClass.getQualifiedName() + "();"
-                                + createTextForConverterToDto()
-                                + "return dto; \n}"
-                        , convertorClass));
-        convertorClass.add(
-                factory.createMethodFromText(
-                        "@Override\n" + "public Class<" + getNodeClassFullName() + "> getSourceClass() {\n" +
-                                "return " + getNodeClassFullName() + ".class;\n" + "}"
-                        , convertorClass));
-        convertorClass.add(
-                factory.createMethodFromText(
-                        "@Override\n" + "public Class<" + dtoClass.getQualifiedName() + "> getDestinationClass() {\n" +
-                                "return " + dtoClass.getQualifiedName() + ".class;\n" + "}"
-                        , convertorClass));
+            @Override
+            public void onThrowable(@NotNull Throwable error) {
+                GenerationMetrics.getInstance().finishRun(run);
+                Messages.showErrorDialog(project, error.getMessage(), "dto");
+            }
+        }.queue();
     }
 
-
-    private void writeConverterToEntity(PsiClass convertorClass, PsiClass dtoClass) {
-        PsiClass classFromText = factory.createClassFromText("@org.springframework.stereotype.Component" +
-                "\npublic class " + dtoName.getText() + "ConverterToEntity implements " +
-                "com.sbt.util.Converter<" +
-                dtoClass.getQualifiedName() + ", " + getNodeClassFullName()
-                + "> {\n\n}", null);
-        convertorClass = (PsiClass) convertorClass.replace(
-                PsiTreeUtil.findChildOfType(classFromText, PsiClass.class));
-        manager.shortenClassReferences(convertorClass);
-        manager.shortenClassReferences(
-                convertorClass.add(
-                        factory.createFieldFromText(
-                                "@org.springframework.beans.factory.annotation.Autowired\n com.sbt.util.ConverterManager converterManager;"
-                                , convertorClass)));
-        convertorClass.add(
-                factory.createMethodFromText(
-                        "@Override\n" + "public " + getNodeClassFullName() + " convert("
-                                + dtoClass.getQualifiedName() + " dto){\n" +
-                                getNodeClassFullName() + " entity = new " + getNodeClassFullName() + "();\n"
-                                + creatуTextForConverterToEntity()
-                                + " return entity;\n }"
-                        , convertorClass));
-        convertorClass.add(
-                factory.createMethodFromText(
-                        "@Override\n" + "public Class<" + dtoClass.getQualifiedName() + "> getSourceClass() {\n" +
-                                "return " + dtoClass.getQualifiedName() + ".class;\n" + "}"
-                        , convertorClass));
-        convertorClass.add(
-                factory.createMethodFromText(
-                        "@Override\n" + "public Class<" + getNodeClassFullName() + "> getDestinationClass() {\n" +
-                                "return " + getNodeClassFullName() + ".class;\n" + "}"
-                        , convertorClass));
+    private void applyGenerationPlan(GenerationMetrics.Run run, DtoGenerationPlan plan) {
+        new WriteCommandAction.Simple(project) {
+            @Override
+            protected void run() throws Throwable {
+                long start = System.nanoTime();
+                run.within(() -> new GeneratedSourceWriter(project).write(plan));
+                run.record(GenerationMetrics.Phase.WRITE_ACTION, System.nanoTime() - start);
+            }
+        }.execute();
     }
 
 
     private void createAnnotation(PsiClass aClass, String annotationText) {
+        JavaCodeStyleManager manager = JavaCodeStyleManager.getInstance(project);
+        PsiElementFactory factory = JavaPsiFacade.getInstance(project).getElementFactory();
         manager.shortenClassReferences(
                 aClass.addBefore(factory.createAnnotationFromText(annotationText, aClass), aClass));
     }
 
-    private void updateDtoTree() {
-        DefaultMutableTreeNode domainRoot = new DefaultMutableTreeNode(dtoName.getText() + "Dto");
-        DefaultTreeModel treeModel = new DefaultTreeModel(domainRoot);
-        for (NodeField field : dtoFields) {
-            domainRoot.add(new DefaultMutableTreeNode(field));
+    private void addDomainFields(DefaultMutableTreeNode parent, List<NodeField> fields) {
+        for (NodeField field : fields) {
+            DefaultMutableTreeNode child = new DefaultMutableTreeNode(field);
+            if (field.isRelation()) {
+                child.add(new DefaultMutableTreeNode(LOADING));
+            }
+            parent.add(child);
+        }
+    }
+
+    /**
+     * Replaces the placeholder under a relation field with the fields of the related entity
+     * the first time the field is expanded.
+     */
+    private void loadRelationFields(DefaultMutableTreeNode relation) {
+        if (relation.getChildCount() != 1
+                || !LOADING.equals(((DefaultMutableTreeNode) relation.getFirstChild()).getUserObject())) {
+            return;
         }
-        dtoTree.setModel(treeModel);
-        dtoTree.updateUI();
+        relation.removeAllChildren();
+        String targetType = RelationDescriptors.of((NodeField) relation.getUserObject()).getTargetType();
+        DomainTreeNode related = targetType == null ? null : DomainNodeIndex.getInstance().findNode(targetType);
+        if (related != null) {
+            addDomainFields(relation, related.getFields());
+        }
+        domainTreeModel.nodeStructureChanged(relation);
     }
 
     private void domainTreeMouseListener() {
         domainTree.addMouseListener(new MouseListener() {
             @Override
             public void mouseClicked(MouseEvent e) {
-                if (e.getClickCount() >= 1) {
-                    addPropertytoDto();
+                if (e.getClickCount() == 2) {
+                    addPropertiesToDto(domainTree.getSelectionPaths());
                 }
             }
 
@@ -475,45 +306,112 @@ public class DtoDialog extends DialogWrapper {
         });
     }
 
-    private void addPropertytoDto() {
-        DefaultMutableTreeNode treeModel = (DefaultMutableTreeNode) domainTree.getLastSelectedPathComponent();
-        NodeField field = (NodeField) treeModel.getUserObject();
+    private void addAllPropertiesToDto() {
+        DefaultMutableTreeNode domainRoot = (DefaultMutableTreeNode) domainTreeModel.getRoot();
+        TreePath[] paths = new TreePath[domainRoot.getChildCount()];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = new TreePath(((DefaultMutableTreeNode) domainRoot.getChildAt(i)).getPath());
+        }
+        addPropertiesToDto(paths);
+    }
 
-        if (dtoFields.contains(field))
+    /**
+     * Adds the fields at the given domain tree paths, together with the relation fields leading
+     * to them, and fires one insertion event per affected DTO tree node.
+     */
+    private void addPropertiesToDto(@Nullable TreePath[] paths) {
+        if (paths == null) {
             return;
-        dtoFields.add(field);
-        updateDtoTree();
+        }
+        Map<DtoTreeNode, List<Integer>> inserted = new LinkedHashMap<>();
+        Set<DtoTreeNode> created = new HashSet<>();
+        for (TreePath path : paths) {
+            DtoTreeNode parent = dtoRoot;
+            for (int i = 1; i < path.getPathCount(); i++) {
+                Object userObject = ((DefaultMutableTreeNode) path.getPathComponent(i)).getUserObject();
+                if (!(userObject instanceof NodeField)) {
+                    break;
+                }
+                NodeField field = (NodeField) userObject;
+                DtoTreeNode child = parent.find(field);
+                if (child == null) {
+                    child = parent.addField(field);
+                    created.add(child);
+                    if (!created.contains(parent)) {
+                        inserted.computeIfAbsent(parent, p -> new ArrayList<>()).add(parent.getIndex(child));
+                    }
+                }
+                parent = child;
+            }
+        }
+        for (Map.Entry<DtoTreeNode, List<Integer>> entry : inserted.entrySet()) {
+            int[] indices = new int[entry.getValue().size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = entry.getValue().get(i);
+            }
+            dtoTreeModel.nodesWereInserted(entry.getKey(), indices);
+            dtoTree.expandPath(new TreePath(entry.getKey().getPath()));
+        }
     }
 
-    public String firstUpperCase(String word) {
-        if (word == null || word.isEmpty()) {
-            return word;
+    /**
+     * Removes the DTO tree nodes at the given paths and fires one removal event per parent.
+     */
+    private void removePropertiesFromDto(@Nullable TreePath[] paths) {
+        if (paths == null) {
+            return;
+        }
+        Map<DtoTreeNode, TreeMap<Integer, DtoTreeNode>> removed = new LinkedHashMap<>();
+        for (TreePath path : paths) {
+            DtoTreeNode child = (DtoTreeNode) path.getLastPathComponent();
+            DtoTreeNode parent = (DtoTreeNode) child.getParent();
+            if (parent != null) {
+                removed.computeIfAbsent(parent, p -> new TreeMap<>()).put(parent.getIndex(child), child);
+            }
+        }
+        for (Map.Entry<DtoTreeNode, TreeMap<Integer, DtoTreeNode>> entry : removed.entrySet()) {
+            DtoTreeNode parent = entry.getKey();
+            int[] indices = new int[entry.getValue().size()];
+            Object[] children = new Object[indices.length];
+            int i = 0;
+            for (Map.Entry<Integer, DtoTreeNode> child : entry.getValue().entrySet()) {
+                indices[i] = child.getKey();
+                children[i++] = child.getValue();
+            }
+            for (Object child : children) {
+                parent.removeField((DtoTreeNode) child);
+            }
+            dtoTreeModel.nodesWereRemoved(parent, indices, children);
         }
-        return word.substring(0, 1).toUpperCase() + word.substring(1);
     }
 
-    public String firstLowerCase(String word) {
-        if (word == null || word.isEmpty()) {
-            return word;
+    /**
+     * Switches lazy conversion of the selected collection relations, of the DTO or of a related DTO
+     * generated from the fields picked under a relation.
+     */
+    private void toggleLazy(@Nullable TreePath[] paths) {
+        if (paths == null) {
+            return;
+        }
+        for (TreePath path : paths) {
+            DtoTreeNode selected = (DtoTreeNode) path.getLastPathComponent();
+            if (selected != dtoRoot && selected.getField().isCollection()) {
+                selected.setLazy(!selected.isLazy());
+                dtoTreeModel.nodeChanged(selected);
+            }
         }
-        return word.substring(0, 1).toLowerCase() + word.substring(1);
     }
 
-    private String cut(String name) {
-        Pattern pattern = Pattern.compile(".+<(.+)>");
-        Matcher matcher = pattern.matcher(name);
-        while (matcher.find()) {
-            return matcher.group(1);
-        }
-        return "";
+    public String firstUpperCase(String word) {
+        return ConverterSources.firstUpperCase(word);
     }
 
-    private String getNodeClassFullName() {
-        return ((PsiClass) node.getCurrentPsiClass()).getQualifiedName();
+    public String firstLowerCase(String word) {
+        return ConverterSources.firstLowerCase(word);
     }
 
-    private String getNodeNameOfClass() {
-        return ((PsiClass) node.getCurrentPsiClass()).getName();
+    private String getNodeClassFullName() {
+        return ((PsiClass) node.getCurrentPsiClass()).getQualifiedName();
     }
 
 
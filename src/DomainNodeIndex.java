@@ -0,0 +1,122 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.intellij.psi.PsiClass;
+import com.sbt.domain.plugin.DomainStorage;
+import com.sbt.domain.plugin.annotation.JpaAnnotation;
+import com.sbt.domain.plugin.node.DomainTreeNode;
+import com.sbt.domain.plugin.node.NodeField;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Qualified name to {@link DomainTreeNode} index over the {@link DomainStorage} tree,
+ * together with the identifier and ManyToMany fields of every indexed node.
+ * An entry is dropped as soon as the file of its class is modified, so only
+ * edited entities are looked up in the tree again. Must be used inside a read action.
+ */
+final class DomainNodeIndex {
+
+    private static final DomainNodeIndex INSTANCE = new DomainNodeIndex();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile DomainTreeNode indexedRoot;
+
+    static DomainNodeIndex getInstance() {
+        return INSTANCE;
+    }
+
+    @Nullable
+    DomainTreeNode findNode(String qualifiedName) {
+        Entry entry = entry(qualifiedName);
+        return entry == null ? null : entry.node;
+    }
+
+    /**
+     * Camel case name of the ManyToMany field of {@code qualifiedName} that points back to
+     * {@code ownerQualifiedName}; the last ManyToMany field of the class when none does,
+     * and an empty string when the class has no ManyToMany fields.
+     */
+    @NotNull
+    String findInverseManyToMany(String qualifiedName, String ownerQualifiedName) {
+        Entry entry = entry(qualifiedName);
+        if (entry == null) {
+            return "";
+        }
+        String inverse = entry.manyToManyByElementType.get(ownerQualifiedName);
+        return inverse != null ? inverse : entry.lastManyToMany;
+    }
+
+    /**
+     * Accessor name of the identifier field of the entity, {@code null} when it has none or is not in the tree.
+     */
+    @Nullable
+    String findIdAccessor(String qualifiedName) {
+        Entry entry = entry(qualifiedName);
+        return entry == null ? null : entry.idAccessor;
+    }
+
+    @Nullable
+    private Entry entry(String qualifiedName) {
+        DomainTreeNode root = DomainStorage.getInstance().getDomainTreeRoot();
+        if (root != indexedRoot) {
+            entries.clear();
+            indexedRoot = root;
+        }
+        Entry entry = entries.get(qualifiedName);
+        if (entry != null && entry.isUpToDate()) {
+            return entry;
+        }
+        long start = System.nanoTime();
+        DomainTreeNode node = root.findNodeInTree(qualifiedName);
+        GenerationMetrics.getInstance().record(GenerationMetrics.Phase.NODE_LOOKUP, System.nanoTime() - start);
+        if (node == null) {
+            entries.remove(qualifiedName);
+            return null;
+        }
+        entry = new Entry(node);
+        entries.put(qualifiedName, entry);
+        return entry;
+    }
+
+    private static final class Entry {
+
+        private final DomainTreeNode node;
+        private final long modificationStamp;
+        private final Map<String, String> manyToManyByElementType;
+        private final String lastManyToMany;
+        private final String idAccessor;
+
+        Entry(DomainTreeNode node) {
+            this.node = node;
+            modificationStamp = node.getCurrentPsiClass().getContainingFile().getModificationStamp();
+            Map<String, String> manyToMany = new HashMap<>();
+            String last = "";
+            String id = null;
+            for (NodeField field : node.getFields()) {
+                RelationDescriptor relation = RelationDescriptors.of(field);
+                if (relation.isId()) {
+                    id = ConverterSources.firstUpperCase(DomainDialog.toCamelCase(field.getName()));
+                }
+                if (relation.is(JpaAnnotation.ManyToMany)) {
+                    last = DomainDialog.toCamelCase(field.getName());
+                    if (relation.getTargetType() != null) {
+                        manyToMany.putIfAbsent(relation.getTargetType(), last);
+                    }
+                }
+            }
+            manyToManyByElementType = Collections.unmodifiableMap(manyToMany);
+            lastManyToMany = last;
+            idAccessor = id;
+        }
+
+        boolean isUpToDate() {
+            PsiClass psiClass = node.getCurrentPsiClass();
+            return psiClass.isValid() && psiClass.getContainingFile().getModificationStamp() == modificationStamp;
+        }
+    }
+}
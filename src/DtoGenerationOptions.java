@@ -0,0 +1,149 @@
+package com.sbt.domain.plugin.dialog;
+
+/**
+ * Optional features of the generated converters. Filled from the dialog before
+ * generation starts and not changed while a generation is running.
+ */
+final class DtoGenerationOptions {
+
+    static final int DEFAULT_BATCH_SIZE = 500;
+
+    private boolean identityContext;
+    private boolean projection;
+    private boolean entityGraph;
+    private boolean streaming;
+    private boolean fieldMask;
+    private boolean benchmark;
+    private boolean compact;
+    private boolean packFlags;
+    private boolean jsonCodec;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Converters pass an identity map from source to converted instance through the whole graph,
+     * so every entity is converted once per call and shared or cyclic references keep their identity.
+     * Not available for compact DTOs, which exist only after all their relations are converted.
+     */
+    boolean isIdentityContext() {
+        return identityContext && !compact;
+    }
+
+    DtoGenerationOptions setIdentityContext(boolean identityContext) {
+        this.identityContext = identityContext;
+        return this;
+    }
+
+    /**
+     * The DTO gets an all-args constructor and a JPQL constructor expression query that loads it
+     * without hydrating entities. Not available for compact DTOs, which have no setters for the
+     * nested ManyToOne DTOs.
+     */
+    boolean isProjection() {
+        return projection && !compact;
+    }
+
+    DtoGenerationOptions setProjection(boolean projection) {
+        this.projection = projection;
+        return this;
+    }
+
+    /**
+     * A fetch plan class builds the entity graph of the relations the converter reads.
+     */
+    boolean isEntityGraph() {
+        return entityGraph;
+    }
+
+    DtoGenerationOptions setEntityGraph(boolean entityGraph) {
+        this.entityGraph = entityGraph;
+        return this;
+    }
+
+    /**
+     * Converters get stream and iterator methods that convert element by element and run a
+     * callback, such as a persistence context clear, every {@link #getBatchSize()} elements.
+     */
+    boolean isStreaming() {
+        return streaming;
+    }
+
+    DtoGenerationOptions setStreaming(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
+    /**
+     * The DTO converter takes a field mask, skipping properties and relations it does not include
+     * and handing nested masks on to the child converters, which must be generated with masks too.
+     * With an identity context an entity reached twice is converted with the mask of the first path only.
+     */
+    boolean isFieldMask() {
+        return fieldMask;
+    }
+
+    DtoGenerationOptions setFieldMask(boolean fieldMask) {
+        this.fieldMask = fieldMask;
+        return this;
+    }
+
+    /**
+     * A JMH benchmark of both converters over generated entity graphs is emitted into the same
+     * package under a test source root of the module.
+     */
+    boolean isBenchmark() {
+        return benchmark;
+    }
+
+    DtoGenerationOptions setBenchmark(boolean benchmark) {
+        this.benchmark = benchmark;
+        return this;
+    }
+
+    /**
+     * The DTO is an immutable final class built through one all-args constructor. Identifiers and
+     * {@code @Column(nullable = false)} columns of wrapper types become primitives, and converters
+     * collect values into locals instead of calling setters, so back-references are not set.
+     */
+    boolean isCompact() {
+        return compact;
+    }
+
+    DtoGenerationOptions setCompact(boolean compact) {
+        this.compact = compact;
+        return this;
+    }
+
+    /**
+     * Two or more boolean properties of a compact DTO share one bit set field.
+     */
+    boolean isPackFlags() {
+        return compact && packFlags;
+    }
+
+    DtoGenerationOptions setPackFlags(boolean packFlags) {
+        this.packFlags = packFlags;
+        return this;
+    }
+
+    /**
+     * A streaming JSON codec is generated for the DTO and registered on it with Jackson annotations.
+     * Related DTOs are written through their own codecs, which must be generated too.
+     */
+    boolean isJsonCodec() {
+        return jsonCodec;
+    }
+
+    DtoGenerationOptions setJsonCodec(boolean jsonCodec) {
+        this.jsonCodec = jsonCodec;
+        return this;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    DtoGenerationOptions setBatchSize(int batchSize) {
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        return this;
+    }
+}
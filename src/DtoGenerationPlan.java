@@ -0,0 +1,66 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.intellij.psi.PsiDirectory;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable result of the read phase of DTO generation.
+ * The write phase only puts the prepared sources into the target directory.
+ */
+final class DtoGenerationPlan {
+
+    private final PsiDirectory directory;
+    @Nullable
+    private final PsiDirectory testRoot;
+    private final Map<PsiFile, Long> modificationStamps;
+    private final List<GeneratedSource> sources;
+
+    /**
+     * @param testRoot           test source root receiving the test sources, {@code null} when there are none
+     * @param modificationStamps stamps of every file the plan was computed from
+     */
+    DtoGenerationPlan(PsiDirectory directory, @Nullable PsiDirectory testRoot, Map<PsiFile, Long> modificationStamps,
+                      List<GeneratedSource> sources) {
+        this.directory = directory;
+        this.testRoot = testRoot;
+        this.modificationStamps = Collections.unmodifiableMap(new LinkedHashMap<>(modificationStamps));
+        this.sources = Collections.unmodifiableList(sources);
+    }
+
+    /**
+     * A plan is stale once its entity, any related entity or any existing DTO class it consulted was
+     * edited after it was computed; it must then be rebuilt. DTOs generated by the same batch are
+     * resolved from the batch's selections instead of their files, so plans of a batch stay valid
+     * while earlier ones are written.
+     */
+    boolean isUpToDate() {
+        if (!directory.isValid() || testRoot != null && !testRoot.isValid()) {
+            return false;
+        }
+        for (Map.Entry<PsiFile, Long> entry : modificationStamps.entrySet()) {
+            if (!entry.getKey().isValid() || entry.getKey().getModificationStamp() != entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    PsiDirectory getDirectory() {
+        return directory;
+    }
+
+    @Nullable
+    PsiDirectory getTestRoot() {
+        return testRoot;
+    }
+
+    List<GeneratedSource> getSources() {
+        return sources;
+    }
+}
@@ -0,0 +1,191 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.sbt.domain.plugin.node.DomainTreeNode;
+import com.sbt.domain.plugin.node.NodeField;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DTOs to generate without the dialogs, read from a spec file with one entity per line:
+ * <pre>
+ * # entity          fields                      package        name
+ * com.acme.Person   id,name,address.city        com.acme.dto   Person
+ * com.acme.Order    owning                      com.acme.dto
+ * option identityContext
+ * option batchSize 1000
+ * </pre>
+ * Fields are given by name, or chosen by one of the policies {@code all}, {@code scalars} and
+ * {@code owning}. Fields of a related entity, given as {@code relation.field}, make up the DTO
+ * generated for that entity. The package defaults to
+ * the package of the entity and the name to its simple name. {@code option} lines switch on
+ * generation options by their {@link DtoGenerationOptions} property names.
+ */
+final class DtoGenerationSpec {
+
+    private static final Map<String, FieldSelectionPolicy> POLICIES = new HashMap<>();
+
+    static {
+        POLICIES.put("all", FieldSelectionPolicy.ALL_FIELDS);
+        POLICIES.put("scalars", FieldSelectionPolicy.SCALAR_FIELDS);
+        POLICIES.put("owning", FieldSelectionPolicy.SCALARS_AND_OWNING_RELATIONS);
+    }
+
+    private final List<Entry> entries;
+    private final DtoGenerationOptions options;
+
+    private DtoGenerationSpec(List<Entry> entries, DtoGenerationOptions options) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.options = options;
+    }
+
+    static DtoGenerationSpec read(Path file) throws IOException {
+        return parse(Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException naming the line that cannot be read
+     */
+    static DtoGenerationSpec parse(List<String> lines) {
+        List<Entry> entries = new ArrayList<>();
+        DtoGenerationOptions options = new DtoGenerationOptions();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split("\\s+");
+            if (columns[0].equals("option")) {
+                if (columns.length < 2 || !setOption(options, columns[1], columns.length > 2 ? columns[2] : null)) {
+                    throw new IllegalArgumentException("Line " + (i + 1) + ": unknown option: " + line);
+                }
+            } else if (columns.length >= 2 && columns.length <= 4) {
+                entries.add(new Entry(columns[0], columns[1],
+                        columns.length > 2 ? columns[2] : null, columns.length > 3 ? columns[3] : null));
+            } else {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": expected entity, fields, package and name: " + line);
+            }
+        }
+        return new DtoGenerationSpec(entries, options);
+    }
+
+    private static boolean setOption(DtoGenerationOptions options, String name, @Nullable String value) {
+        switch (name) {
+            case "identityContext":
+                options.setIdentityContext(true);
+                return true;
+            case "projection":
+                options.setProjection(true);
+                return true;
+            case "entityGraph":
+                options.setEntityGraph(true);
+                return true;
+            case "streaming":
+                options.setStreaming(true);
+                return true;
+            case "fieldMask":
+                options.setFieldMask(true);
+                return true;
+            case "benchmark":
+                options.setBenchmark(true);
+                return true;
+            case "compact":
+                options.setCompact(true);
+                return true;
+            case "packFlags":
+                options.setPackFlags(true);
+                return true;
+            case "jsonCodec":
+                options.setJsonCodec(true);
+                return true;
+            case "batchSize":
+                options.setBatchSize(StringUtil.parseInt(value, DtoGenerationOptions.DEFAULT_BATCH_SIZE));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Resolves every entry against the domain tree. Must be called inside a read action.
+     *
+     * @throws IllegalArgumentException for entities or fields that are not in the tree
+     */
+    List<DtoGenerator> createGenerators() {
+        List<DtoGenerator> generators = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            DomainTreeNode node = DomainNodeIndex.getInstance().findNode(entry.entity);
+            if (node == null) {
+                throw new IllegalArgumentException("Entity " + entry.entity + " not found");
+            }
+            FieldSelectionPolicy policy = POLICIES.get(entry.fields);
+            FieldSelection selection = policy != null
+                    ? new FieldSelection(policy.select(node))
+                    : select(node, entry.entity, Arrays.asList(entry.fields.split(",")));
+            String dtoPackage = entry.dtoPackage != null ? entry.dtoPackage : StringUtil.getPackageName(entry.entity);
+            String dtoName = entry.name != null ? entry.name : StringUtil.getShortName(entry.entity);
+            generators.add(new DtoGenerator(node, selection, dtoPackage, dtoName, options));
+        }
+        return generators;
+    }
+
+    private static FieldSelection select(DomainTreeNode node, String qualifiedName, List<String> paths) {
+        Map<String, NodeField> fieldsByName = new HashMap<>();
+        for (NodeField field : node.getFields()) {
+            fieldsByName.put(field.getName(), field);
+        }
+        Map<NodeField, List<String>> nestedPaths = new LinkedHashMap<>();
+        for (String path : paths) {
+            int dot = path.indexOf('.');
+            String name = dot < 0 ? path : path.substring(0, dot);
+            NodeField field = fieldsByName.get(name);
+            if (field == null) {
+                throw new IllegalArgumentException("Field " + name + " not found in " + qualifiedName);
+            }
+            List<String> nested = nestedPaths.computeIfAbsent(field, f -> new ArrayList<>());
+            if (dot >= 0) {
+                nested.add(path.substring(dot + 1));
+            }
+        }
+        Map<NodeField, FieldSelection> nested = new LinkedHashMap<>();
+        for (Map.Entry<NodeField, List<String>> entry : nestedPaths.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            String targetType = RelationDescriptors.of(entry.getKey()).getTargetType();
+            DomainTreeNode related = targetType == null ? null : DomainNodeIndex.getInstance().findNode(targetType);
+            if (related == null) {
+                throw new IllegalArgumentException(qualifiedName + "." + entry.getKey().getName()
+                        + " is not a relation to a domain entity");
+            }
+            nested.put(entry.getKey(), select(related, targetType, entry.getValue()));
+        }
+        return new FieldSelection(nestedPaths.keySet(), nested);
+    }
+
+    private static final class Entry {
+
+        private final String entity;
+        private final String fields;
+        private final String dtoPackage;
+        private final String name;
+
+        Entry(String entity, String fields, @Nullable String dtoPackage, @Nullable String name) {
+            this.entity = entity;
+            this.fields = fields;
+            this.dtoPackage = dtoPackage;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.intellij.ide.impl.ProjectUtil;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Headless entry point, {@code idea generate-dto <project dir> <spec file>}: generates every DTO of a
+ * {@link DtoGenerationSpec} with the parallel batch generation and prints the time of each entity.
+ */
+public final class DtoGenerationStarter implements ApplicationStarter {
+
+    @Override
+    public String getCommandName() {
+        return "generate-dto";
+    }
+
+    @Override
+    public int getRequiredModality() {
+        return NOT_IN_EDT;
+    }
+
+    @Override
+    public void main(@NotNull String[] args) {
+        if (args.length != 3) {
+            System.err.println("Usage: generate-dto <project dir> <spec file>");
+            System.exit(2);
+        }
+        int status = 0;
+        try {
+            generate(args[1], DtoGenerationSpec.read(Paths.get(args[2])));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("DTO generation failed: " + e.getMessage());
+            e.printStackTrace();
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    private static void generate(String projectDir, DtoGenerationSpec spec) {
+        AtomicReference<Project> opened = new AtomicReference<>();
+        ApplicationManager.getApplication().invokeAndWait(
+                () -> opened.set(ProjectUtil.openOrImport(projectDir, null, false)));
+        Project project = opened.get();
+        if (project == null) {
+            throw new IllegalArgumentException("Cannot open project " + projectDir);
+        }
+        List<DtoGenerator> generators = ReadAction.nonBlocking(spec::createGenerators)
+                .inSmartMode(project)
+                .executeSynchronously();
+        long start = System.nanoTime();
+        BatchDtoGeneration generation = new BatchDtoGeneration(project, generators);
+        generation.run(new EmptyProgressIndicator());
+        ApplicationManager.getApplication().invokeAndWait(() -> FileDocumentManager.getInstance().saveAllDocuments());
+        for (DtoGenerator generator : generators) {
+            System.out.printf("%-40s plan %6d ms  write %6d ms%n", generator.getDtoName(),
+                    TimeUnit.NANOSECONDS.toMillis(generation.getPlanningNanos(generator)),
+                    TimeUnit.NANOSECONDS.toMillis(generation.getWritingNanos(generator)));
+        }
+        System.out.printf("%d DTOs generated in %d ms%n", generators.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
@@ -0,0 +1,606 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.intellij.codeInsight.AnnotationUtil;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.*;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.sbt.domain.plugin.annotation.JpaAnnotation;
+import com.sbt.domain.plugin.node.DomainTreeNode;
+import com.sbt.domain.plugin.node.NodeField;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the texts of a DTO and its converters for one domain node, together with the related
+ * DTOs made of the fields picked under its relations: reads the selected fields into
+ * {@link DtoProperty} values for {@link ConverterSources} and adds the query helpers that
+ * need PSI. Must be called inside a read action; never touches Swing components.
+ */
+class DtoGenerator {
+
+    private static final Map<String, String> BOXED = new HashMap<>();
+
+    static {
+        BOXED.put("boolean", "Boolean");
+        BOXED.put("byte", "Byte");
+        BOXED.put("char", "Character");
+        BOXED.put("short", "Short");
+        BOXED.put("int", "Integer");
+        BOXED.put("long", "Long");
+        BOXED.put("float", "Float");
+        BOXED.put("double", "Double");
+    }
+
+    private final DomainTreeNode node;
+    private final FieldSelection selection;
+    private final List<NodeField> dtoFields;
+    private final String dtoPackage;
+    private final String dtoName;
+    private final DtoGenerationOptions options;
+
+    DtoGenerator(DomainTreeNode node, FieldSelection selection, String dtoPackage, String dtoName,
+                 DtoGenerationOptions options) {
+        this.node = node;
+        this.selection = selection;
+        this.dtoFields = selection.getFields();
+        this.dtoPackage = dtoPackage;
+        this.dtoName = dtoName;
+        this.options = options;
+    }
+
+    String getDtoName() {
+        return dtoName;
+    }
+
+    @NotNull
+    DtoGenerationPlan createPlan(PackageDirectories directories) {
+        return createPlan(directories, Collections.emptyMap());
+    }
+
+    /**
+     * @param batchDtoFields fields of every DTO the enclosing batch generates, by qualified name, as
+     *                       collected by {@link #collectDtoFields}; consulted before existing DTO classes
+     */
+    @NotNull
+    DtoGenerationPlan createPlan(PackageDirectories directories, Map<String, List<NodeField>> batchDtoFields) {
+        ConsultingLookup lookup = new ConsultingLookup(node.getCurrentPsiClass().getProject(), batchDtoFields);
+        PsiDirectory directory = directories.find(dtoPackage);
+        PsiDirectory testRoot = options.isBenchmark() ? directories.findTestRoot(directory) : null;
+        Map<String, GeneratedSource> sources = new LinkedHashMap<>();
+        addSources(sources, lookup);
+        GenerationMetrics.getInstance().count(GenerationMetrics.Counter.SOURCES_PLANNED, sources.size());
+        return new DtoGenerationPlan(directory, testRoot, lookup.modificationStamps(), new ArrayList<>(sources.values()));
+    }
+
+    /**
+     * Adds the fields of this DTO and of the related DTOs picked under its relations, by qualified
+     * name, without planning any source. DTOs already present are kept.
+     */
+    void collectDtoFields(Map<String, List<NodeField>> dtoFields) {
+        collectDtoFields(dtoName, selection, dtoFields);
+    }
+
+    private void collectDtoFields(String name, FieldSelection fieldSelection, Map<String, List<NodeField>> dtoFields) {
+        dtoFields.putIfAbsent(StringUtil.getQualifiedName(dtoPackage, name + "DTO"), fieldSelection.getFields());
+        for (NodeField field : fieldSelection.getFields()) {
+            FieldSelection nested = fieldSelection.getNested(field);
+            if (field.isRelation() && !nested.isEmpty()) {
+                collectDtoFields(childType(field), nested, dtoFields);
+            }
+        }
+    }
+
+    /**
+     * Adds the sources of this DTO after those of the related DTOs whose fields were picked under
+     * a relation, so a pick such as {@code address.city} generates an address DTO with just that
+     * field. Related DTOs without picks are expected to exist. Shared support classes are added once.
+     *
+     * @throws IllegalArgumentException when one DTO is picked with different fields under two relations
+     */
+    private void addSources(Map<String, GeneratedSource> sources, ConsultingLookup lookup) {
+        String dtoQualifiedName = StringUtil.getQualifiedName(dtoPackage, dtoName + "DTO");
+        List<NodeField> previous = lookup.plan(dtoQualifiedName, dtoFields);
+        if (previous != null) {
+            if (previous.equals(dtoFields)) {
+                return;
+            }
+            throw new IllegalArgumentException(dtoName + "DTO is picked with different fields in more than one place");
+        }
+        lookup.consult(node.getCurrentPsiClass().getContainingFile());
+        for (NodeField field : dtoFields) {
+            FieldSelection nested = selection.getNested(field);
+            if (!field.isRelation() || nested.isEmpty()) {
+                continue;
+            }
+            String targetType = RelationDescriptors.of(field).getTargetType();
+            DomainTreeNode related = targetType == null ? null : lookup.findNode(targetType);
+            if (related == null) {
+                throw new IllegalArgumentException(getNodeNameOfClass() + "." + field.getName()
+                        + " is not a relation to a domain entity");
+            }
+            new DtoGenerator(related, nested, dtoPackage, childType(field), options).addSources(sources, lookup);
+        }
+
+        List<DtoProperty> properties = new ArrayList<>(dtoFields.size());
+        for (NodeField field : dtoFields) {
+            ProgressManager.checkCanceled();
+            properties.add(property(field));
+        }
+        lookup.planProperties(dtoQualifiedName, properties);
+        Map<String, List<DtoProperty>> relatedProperties = new HashMap<>();
+        for (DtoProperty property : properties) {
+            List<DtoProperty> related = property.isRelation()
+                    ? lookup.plannedProperties(StringUtil.getQualifiedName(dtoPackage, property.getChildType() + "DTO"))
+                    : null;
+            if (related != null) {
+                relatedProperties.put(property.getChildType(), related);
+            }
+        }
+        long start = System.nanoTime();
+        List<String> dtoConstructors = new ArrayList<>();
+        GeneratedSource projection = options.isProjection()
+                ? createProjection(dtoQualifiedName, dtoConstructors, lookup)
+                : null;
+        List<GeneratedSource> created = new ConverterSources(getNodeClassFullName(), getNodeNameOfClass(), dtoPackage,
+                dtoName, properties, options, lookup).create(dtoConstructors, relatedProperties);
+        if (projection != null) {
+            created.add(projection);
+        }
+        if (options.isEntityGraph()) {
+            created.add(createFetchPlan(lookup));
+        }
+        for (GeneratedSource source : created) {
+            sources.putIfAbsent(source.getClassName(), source);
+        }
+        GenerationMetrics.getInstance().record(GenerationMetrics.Phase.TEXT_BUILDING, System.nanoTime() - start);
+    }
+
+    /**
+     * Adds to {@code dtoConstructors} an all-args constructor over the scalar fields and the scalars
+     * chosen under ManyToOne fields, and returns a class that selects straight into the DTO with a JPQL
+     * constructor expression, so read-only listings need neither managed entities nor a converter pass.
+     * Values under a relation come from a left join, so they are passed boxed, as a missing row gives
+     * {@code null} even for primitive columns, and named after the join alias, so they cannot collide
+     * with the scalars of the DTO or of another relation.
+     *
+     * @return {@code null} when nothing selected can be projected
+     */
+    @Nullable
+    private GeneratedSource createProjection(String dtoQualifiedName, List<String> dtoConstructors,
+                                             ConsultingLookup lookup) {
+        List<String> parameters = new ArrayList<>();
+        List<String> select = new ArrayList<>();
+        StringBuilder assignments = new StringBuilder();
+        StringBuilder joins = new StringBuilder();
+        for (NodeField field : dtoFields) {
+            ProgressManager.checkCanceled();
+            if (!field.isRelation()) {
+                parameters.add(field.getPropertyType() + " " + field.getName());
+                select.add("e." + field.getName());
+                assignments.append("this.").append(field.getName()).append(" = ").append(field.getName()).append(";\n");
+            } else if (!field.isCollection() && RelationDescriptors.of(field).is(JpaAnnotation.ManyToOne)) {
+                String alias = "j" + select.size();
+                List<String> nullChecks = new ArrayList<>();
+                StringBuilder nested = new StringBuilder();
+                for (NodeField nestedField : selection.getNested(field).getFields()) {
+                    lookup.consult(nestedField);
+                    if (nestedField.isRelation()) {
+                        continue;
+                    }
+                    String parameter = alias + "$" + nestedField.getName();
+                    String boxed = BOXED.get(nestedField.getPropertyType());
+                    parameters.add((boxed != null ? boxed : nestedField.getPropertyType()) + " " + parameter);
+                    select.add(alias + "." + nestedField.getName());
+                    nullChecks.add(parameter + " != null");
+                    String set = "this." + field.getName() + ".set" + accessor(nestedField) + "(" + parameter + ");\n";
+                    nested.append(boxed != null ? "if (" + parameter + " != null) {\n" + set + "}\n" : set);
+                }
+                if (nested.length() == 0) {
+                    continue;
+                }
+                joins.append(" left join e.").append(field.getName()).append(" ").append(alias);
+                assignments.append("if (").append(StringUtil.join(nullChecks, " || ")).append(") {\n")
+                        .append("this.").append(field.getName()).append(" = new ").append(field.getPropertyType()).append("DTO();\n")
+                        .append(nested)
+                        .append("}\n");
+            }
+        }
+        if (select.isEmpty()) {
+            return null;
+        }
+        String projectionName = dtoName + "DTOProjection";
+        dtoConstructors.add("public " + dtoName + "DTO() {\n}");
+        dtoConstructors.add("/**\n"
+                + " * Used by the JPQL constructor expression of {@link " + projectionName + "}.\n"
+                + " */\n"
+                + "public " + dtoName + "DTO(" + StringUtil.join(parameters, ", ") + ") {\n"
+                + assignments
+                + "}");
+        String query = "select new " + dtoQualifiedName + "(" + StringUtil.join(select, ", ") + ") from "
+                + getEntityName() + " e" + joins;
+        return new JavaSourceEmitter(dtoPackage,
+                "/**\n"
+                        + " * Loads {@link " + dtoName + "DTO} with a constructor expression, without managed entities.\n"
+                        + " */\n"
+                        + "public final class " + projectionName,
+                projectionName)
+                .member("public static final String SELECT = \"" + query + "\";")
+                .member("private " + projectionName + "() {\n}")
+                .member("public static java.util.List<" + dtoQualifiedName + "> list("
+                        + RelationDescriptor.persistenceName("EntityManager") + " entityManager) {\n"
+                        + "return entityManager.createQuery(SELECT, " + dtoQualifiedName + ".class).getResultList();\n"
+                        + "}")
+                .emit();
+    }
+
+    /**
+     * Entity graph over the fields the converter reads, so an entity loaded for conversion
+     * comes with its relations in one or a few queries instead of one lazy load per relation.
+     * Relations picked in the domain tree below a relation become subgraphs. Hibernate cannot fetch
+     * two bags, collections that are not sets, in one query, so the main graph takes the first bag
+     * only; every other bag gets a graph of its own that {@code fetchRemaining} loads in a further query.
+     * Bags below a bag are not fetched at all.
+     */
+    private GeneratedSource createFetchPlan(ConsultingLookup lookup) {
+        String fetchPlanName = dtoName + "DTOFetchPlan";
+        String entityClass = getNodeClassFullName();
+        String entityManager = RelationDescriptor.persistenceName("EntityManager");
+        String entityGraph = RelationDescriptor.persistenceName("EntityGraph");
+        List<NodeField> fetched = new ArrayList<>();
+        for (NodeField field : dtoFields) {
+            if (!field.isRelation() || convertsRelation(field)) {
+                fetched.add(field);
+            }
+        }
+        BagSplit split = new BagSplit();
+        StringBuilder body = new StringBuilder();
+        appendGraphNodes(body, "graph", "", fetched, selection, Collections.emptyList(), false, split, lookup);
+
+        StringBuilder extraGraphs = new StringBuilder();
+        StringBuilder fetchRemaining = new StringBuilder();
+        for (List<NodeField> path : split.deferred) {
+            StringBuilder name = new StringBuilder();
+            for (NodeField field : path) {
+                name.append(accessor(field));
+            }
+            String method = "create" + name + "Graph";
+            StringBuilder graphBody = new StringBuilder();
+            appendGraphPath(graphBody, "graph", "", path, 0, selection, split, lookup);
+            extraGraphs.append("public static ").append(entityGraph).append("<").append(entityClass).append("> ")
+                    .append(method).append("(").append(entityManager).append(" entityManager) {\n")
+                    .append(graph(entityClass)).append(graphBody)
+                    .append("return graph;\n")
+                    .append("}\n\n");
+            fetchRemaining.append("entityManager.createQuery(SELECT_BY_ENTITIES, ").append(entityClass).append(".class)\n")
+                    .append(".setParameter(\"entities\", entities)\n")
+                    .append(".setHint(FETCH_GRAPH, ").append(method).append("(entityManager))\n")
+                    .append(".getResultList();\n");
+        }
+
+        String unfetched = split.unfetched.isEmpty() ? "" : " * <p>\n"
+                + " * Not fetched, as they are bags below a bag: {@code " + StringUtil.join(split.unfetched, "}, {@code ") + "}.\n";
+        JavaSourceEmitter fetchPlan = new JavaSourceEmitter(dtoPackage,
+                "/**\n"
+                        + " * Fetch plan matching the fields read by {@link " + dtoName + "ConverterToDTO}.\n"
+                        + unfetched
+                        + " */\n"
+                        + "public final class " + fetchPlanName,
+                fetchPlanName)
+                .member("public static final String FETCH_GRAPH = \"" + RelationDescriptor.persistenceName("fetchgraph") + "\";")
+                .member(split.deferred.isEmpty() ? "" : "private static final String SELECT_BY_ENTITIES = \"select e from "
+                        + getEntityName() + " e where e in :entities\";")
+                .member("private " + fetchPlanName + "() {\n}")
+                .member("/**\n"
+                        + " * Graph of the scalar fields and relations, with at most one bag.\n"
+                        + " */\n"
+                        + "public static " + entityGraph + "<" + entityClass + "> create(" + entityManager + " entityManager) {\n"
+                        + graph(entityClass)
+                        + body
+                        + "return graph;\n"
+                        + "}")
+                .member("/**\n"
+                        + " * Query hints for {@code find} or {@code setHint} that load with this plan.\n"
+                        + " */\n"
+                        + "public static java.util.Map<String, Object> hints(" + entityManager + " entityManager) {\n"
+                        + "return java.util.Collections.singletonMap(FETCH_GRAPH, create(entityManager));\n"
+                        + "}");
+        if (!split.deferred.isEmpty()) {
+            fetchPlan.member(extraGraphs.toString().trim())
+                    .member("/**\n"
+                            + " * Loads the bags left out of {@link #create} into {@code entities}, one query per bag.\n"
+                            + " * Must run in the persistence context that loaded the entities.\n"
+                            + " */\n"
+                            + "public static void fetchRemaining(" + entityManager + " entityManager, java.util.List<"
+                            + entityClass + "> entities) {\n"
+                            + "if (entities.isEmpty()) {\n"
+                            + "return;\n"
+                            + "}\n"
+                            + fetchRemaining
+                            + "}");
+        }
+        return fetchPlan.emit();
+    }
+
+    private static String graph(String entityClass) {
+        return RelationDescriptor.persistenceName("EntityGraph") + "<" + entityClass + "> graph = entityManager.createEntityGraph("
+                + entityClass + ".class);\n";
+    }
+
+    /**
+     * @param path     relations from the root to {@code fields}
+     * @param underBag whether one of {@code path} is a bag
+     */
+    private void appendGraphNodes(StringBuilder body, String graph, String prefix, List<NodeField> fields,
+                                  FieldSelection fieldSelection, List<NodeField> path, boolean underBag,
+                                  BagSplit split, ConsultingLookup lookup) {
+        List<String> attributes = new ArrayList<>();
+        for (NodeField field : fields) {
+            ProgressManager.checkCanceled();
+            lookup.consult(field);
+            List<NodeField> fieldPath = new ArrayList<>(path);
+            fieldPath.add(field);
+            boolean bag = isBag(field);
+            if (bag && underBag) {
+                StringBuilder dotted = new StringBuilder();
+                for (NodeField element : fieldPath) {
+                    dotted.append(dotted.length() == 0 ? "" : ".").append(element.getName());
+                }
+                split.unfetched.add(dotted.toString());
+                continue;
+            }
+            if (bag && split.bagTaken) {
+                split.deferred.add(fieldPath);
+                continue;
+            }
+            split.bagTaken |= bag;
+            FieldSelection nested = fieldSelection.getNested(field);
+            String targetType = field.isRelation() ? RelationDescriptors.of(field).getTargetType() : null;
+            if (nested.isEmpty() || targetType == null) {
+                attributes.add("\"" + field.getName() + "\"");
+                continue;
+            }
+            String subgraph = appendSubgraph(body, graph, prefix, field, targetType);
+            appendGraphNodes(body, subgraph, prefix + accessor(field), nested.getFields(), nested, fieldPath,
+                    underBag || bag, split, lookup);
+        }
+        if (!attributes.isEmpty()) {
+            body.append(graph).append(".addAttributeNodes(").append(StringUtil.join(attributes, ", ")).append(");\n");
+        }
+    }
+
+    /**
+     * Nodes of a graph for the bag at the end of {@code path}, reached through the relations before it.
+     */
+    private void appendGraphPath(StringBuilder body, String graph, String prefix, List<NodeField> path, int index,
+                                 FieldSelection fieldSelection, BagSplit split, ConsultingLookup lookup) {
+        NodeField field = path.get(index);
+        if (index == path.size() - 1) {
+            BagSplit own = new BagSplit();
+            appendGraphNodes(body, graph, prefix, Collections.singletonList(field), fieldSelection,
+                    path.subList(0, index), false, own, lookup);
+            split.unfetched.addAll(own.unfetched);
+            return;
+        }
+        String subgraph = appendSubgraph(body, graph, prefix, field, RelationDescriptors.of(field).getTargetType());
+        appendGraphPath(body, subgraph, prefix + accessor(field), path, index + 1, fieldSelection.getNested(field),
+                split, lookup);
+    }
+
+    private static String appendSubgraph(StringBuilder body, String graph, String prefix, NodeField field, String targetType) {
+        String subgraph = ConverterSources.firstLowerCase(prefix + accessor(field)) + "Graph";
+        body.append(RelationDescriptor.persistenceName("Subgraph")).append("<").append(targetType).append("> ")
+                .append(subgraph).append(" = ").append(graph).append(".addSubgraph(\"").append(field.getName()).append("\");\n");
+        return subgraph;
+    }
+
+    /**
+     * Whether the field is a collection with bag semantics, any collection but a set.
+     */
+    private static boolean isBag(NodeField field) {
+        if (!field.isCollection()) {
+            return false;
+        }
+        String type = field.getPropertyType();
+        int generic = type.indexOf('<');
+        String raw = generic < 0 ? type : type.substring(0, generic);
+        return !raw.endsWith("Set");
+    }
+
+    /**
+     * Whether the generated ConverterToDTO reads the relation while converting the owner;
+     * lazy collections are read later, on first access.
+     */
+    private boolean convertsRelation(NodeField field) {
+        RelationDescriptor relation = RelationDescriptors.of(field);
+        if (field.isDirectional() && !options.isIdentityContext()
+                || relation.is(JpaAnnotation.ManyToOne)
+                || selection.isLazy(field)) {
+            return false;
+        }
+        return relation.is(JpaAnnotation.OneToMany) || relation.is(JpaAnnotation.OneToOne)
+                || relation.isJoinTableManyToMany()
+                || options.isIdentityContext() && relation.is(JpaAnnotation.ManyToMany);
+    }
+
+    /**
+     * Capitalized property name used in accessor names.
+     */
+    private static String accessor(NodeField field) {
+        return ConverterSources.firstUpperCase(DomainDialog.toCamelCase(field.getName()));
+    }
+
+    private DtoProperty property(NodeField field) {
+        String childType = field.isRelation() ? childType(field) : null;
+        return new DtoProperty(field.getName(), accessor(field), field.getPropertyType(), childType,
+                field.isCollection(), field.isDirectional(), selection.isLazy(field), RelationDescriptors.of(field));
+    }
+
+    /**
+     * Simple name of the related entity: the element type for collections, the property type otherwise.
+     */
+    private static String childType(NodeField field) {
+        return ConverterSources.firstUpperCase(field.isCollection() ? cut(field.getPropertyType()) : field.getPropertyType());
+    }
+
+    private static String cut(String name) {
+        Pattern pattern = Pattern.compile(".+<(.+)>");
+        Matcher matcher = pattern.matcher(name);
+        while (matcher.find()) {
+            return matcher.group(1);
+        }
+        return "";
+    }
+
+    /**
+     * Bags found while building the main graph that it cannot take.
+     */
+    private static final class BagSplit {
+
+        private boolean bagTaken;
+        /**
+         * Paths from the root to bags that get a graph of their own.
+         */
+        private final List<List<NodeField>> deferred = new ArrayList<>();
+        /**
+         * Dotted paths of bags below a bag.
+         */
+        private final List<String> unfetched = new ArrayList<>();
+    }
+
+    /**
+     * Entity lookups of one planning pass, remembering the file of every entity and DTO consulted,
+     * so the plan can tell when any of them changed before it is written. DTOs planned in the pass
+     * or generated by the enclosing batch are known by their fields, others by their existing classes.
+     */
+    private static final class ConsultingLookup implements EntityLookup {
+
+        private final Project project;
+        private final Map<String, List<NodeField>> batchDtoFields;
+        private final Set<PsiFile> files = new LinkedHashSet<>();
+        private final Map<String, List<NodeField>> planned = new HashMap<>();
+        private final Map<String, List<DtoProperty>> plannedProperties = new HashMap<>();
+
+        ConsultingLookup(Project project, Map<String, List<NodeField>> batchDtoFields) {
+            this.project = project;
+            this.batchDtoFields = batchDtoFields;
+        }
+
+        /**
+         * @return fields the DTO was planned with before, {@code null} when it is new
+         */
+        @Nullable
+        List<NodeField> plan(String dtoQualifiedName, List<NodeField> fields) {
+            return planned.putIfAbsent(dtoQualifiedName, fields);
+        }
+
+        void planProperties(String dtoQualifiedName, List<DtoProperty> properties) {
+            plannedProperties.put(dtoQualifiedName, properties);
+        }
+
+        /**
+         * Properties of a DTO planned in this pass, {@code null} for any other DTO.
+         */
+        @Nullable
+        List<DtoProperty> plannedProperties(String dtoQualifiedName) {
+            return plannedProperties.get(dtoQualifiedName);
+        }
+
+        @NotNull
+        @Override
+        public String findInverseManyToMany(String qualifiedName, String ownerQualifiedName) {
+            consult(qualifiedName);
+            return DomainNodeIndex.getInstance().findInverseManyToMany(qualifiedName, ownerQualifiedName);
+        }
+
+        @Nullable
+        @Override
+        public String findIdAccessor(String qualifiedName) {
+            consult(qualifiedName);
+            return DomainNodeIndex.getInstance().findIdAccessor(qualifiedName);
+        }
+
+        @Override
+        public boolean hasDtoProperty(String qualifiedName, String dtoQualifiedName, String accessor) {
+            List<NodeField> fields = planned.get(dtoQualifiedName);
+            if (fields == null) {
+                fields = batchDtoFields.get(dtoQualifiedName);
+            }
+            if (fields != null) {
+                for (NodeField field : fields) {
+                    if (accessor.equals(accessor(field))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            PsiClass dto = JavaPsiFacade.getInstance(project).findClass(dtoQualifiedName, GlobalSearchScope.projectScope(project));
+            if (dto == null) {
+                return false;
+            }
+            consult(dto.getContainingFile());
+            return dto.findMethodsByName("get" + accessor, true).length > 0;
+        }
+
+        @Nullable
+        DomainTreeNode findNode(String qualifiedName) {
+            DomainTreeNode related = DomainNodeIndex.getInstance().findNode(qualifiedName);
+            if (related != null) {
+                consult(related.getCurrentPsiClass().getContainingFile());
+            }
+            return related;
+        }
+
+        void consult(String qualifiedName) {
+            findNode(qualifiedName);
+        }
+
+        void consult(NodeField field) {
+            consult(field.getCurrentPsiElement().getContainingFile());
+        }
+
+        void consult(@Nullable PsiFile file) {
+            if (file != null) {
+                files.add(file);
+            }
+        }
+
+        Map<PsiFile, Long> modificationStamps() {
+            Map<PsiFile, Long> stamps = new LinkedHashMap<>();
+            for (PsiFile file : files) {
+                stamps.put(file, file.getModificationStamp());
+            }
+            return stamps;
+        }
+    }
+
+    private String getNodeClassFullName() {
+        return ((PsiClass) node.getCurrentPsiClass()).getQualifiedName();
+    }
+
+    /**
+     * JPQL name of the entity: the {@code name} of its {@code @Entity} annotation or its simple class name.
+     */
+    private String getEntityName() {
+        PsiAnnotation entity = AnnotationUtil.findAnnotation(node.getCurrentPsiClass(),
+                RelationDescriptor.persistenceName("Entity"));
+        String name = entity == null ? null : AnnotationUtil.getDeclaredStringAttributeValue(entity, "name");
+        return StringUtil.isEmpty(name) ? getNodeNameOfClass() : name;
+    }
+
+    private String getNodeNameOfClass() {
+        return ((PsiClass) node.getCurrentPsiClass()).getName();
+    }
+}
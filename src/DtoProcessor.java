@@ -0,0 +1,273 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.sbt.domain.plugin.annotation.JpaAnnotation;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates the DTO and converters of every {@link GenerateDto} entity at compile time through
+ * {@link ConverterSources}, reading fields and JPA annotations from the language model instead of PSI.
+ * Related entities need their own {@link GenerateDto}, as the converters inject each other.
+ * Runs without the IDE: register it with {@code -processor} or a
+ * {@code META-INF/services/javax.annotation.processing.Processor} entry.
+ */
+@SupportedAnnotationTypes("com.sbt.domain.plugin.dialog.GenerateDto")
+public final class DtoProcessor extends AbstractProcessor {
+
+    private final Set<String> sharedSources = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(GenerateDto.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "@GenerateDto is only allowed on entity classes", element);
+                continue;
+            }
+            TypeElement entity = (TypeElement) element;
+            try {
+                generate(entity, entity.getAnnotation(GenerateDto.class));
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Cannot write DTO sources: " + e.getMessage(), entity);
+            }
+        }
+        return true;
+    }
+
+    private void generate(TypeElement entity, GenerateDto spec) throws IOException {
+        Elements elements = processingEnv.getElementUtils();
+        String entityName = entity.getSimpleName().toString();
+        String dtoPackage = spec.dtoPackage().isEmpty()
+                ? elements.getPackageOf(entity).getQualifiedName().toString()
+                : spec.dtoPackage();
+        String dtoName = spec.name().isEmpty() ? entityName : spec.name();
+
+        Set<String> excluded = new HashSet<>(Arrays.asList(spec.exclude()));
+        List<DtoProperty> properties = new ArrayList<>();
+        for (VariableElement field : persistentFields(entity)) {
+            if (!excluded.contains(field.getSimpleName().toString())) {
+                properties.add(property(field));
+            }
+        }
+        DtoGenerationOptions options = new DtoGenerationOptions()
+                .setIdentityContext(spec.identityContext())
+                .setFieldMask(spec.fieldMask())
+                .setStreaming(spec.streaming())
+                .setCompact(spec.compact())
+                .setPackFlags(spec.packFlags())
+                .setJsonCodec(spec.jsonCodec())
+                .setBatchSize(spec.batchSize());
+        List<GeneratedSource> sources = new ConverterSources(entity.getQualifiedName().toString(), entityName,
+                dtoPackage, dtoName, properties, options, new ElementLookup()).create(Collections.emptyList());
+
+        for (GeneratedSource source : sources) {
+            String qualifiedName = ConverterSources.qualifiedName(dtoPackage, source.getClassName());
+            if (source.isShared() && (!sharedSources.add(qualifiedName) || elements.getTypeElement(qualifiedName) != null)) {
+                continue;
+            }
+            try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, entity).openWriter()) {
+                writer.write(source.getText());
+            }
+        }
+    }
+
+    private List<VariableElement> persistentFields(TypeElement entity) {
+        String transientAnnotation = RelationDescriptor.persistenceName("Transient");
+        List<VariableElement> fields = new ArrayList<>();
+        for (VariableElement field : ElementFilter.fieldsIn(entity.getEnclosedElements())) {
+            if (field.getModifiers().contains(Modifier.STATIC) || field.getModifiers().contains(Modifier.TRANSIENT)
+                    || hasAnnotation(field, transientAnnotation)) {
+                continue;
+            }
+            fields.add(field);
+        }
+        return fields;
+    }
+
+    /**
+     * The dependent side of a bidirectional ManyToMany or OneToOne is the one declaring {@code mappedBy};
+     * OneToMany collections stay converted and get their back-reference set.
+     */
+    private DtoProperty property(VariableElement field) {
+        String name = field.getSimpleName().toString();
+        RelationDescriptor relation = relation(field);
+        String targetType = relation.getTargetType();
+        String childType = targetType == null ? null : targetType.substring(targetType.lastIndexOf('.') + 1);
+        boolean directional = relation.isInverseSide()
+                && (relation.is(JpaAnnotation.ManyToMany) || relation.is(JpaAnnotation.OneToOne));
+        return new DtoProperty(name, ConverterSources.firstUpperCase(name), field.asType().toString(), childType,
+                isCollection(field.asType()), directional, false, relation);
+    }
+
+    private RelationDescriptor relation(VariableElement field) {
+        EnumSet<JpaAnnotation> annotations = EnumSet.noneOf(JpaAnnotation.class);
+        boolean id = false;
+        boolean notNull = false;
+        String mappedBy = null;
+        String joinTable = null;
+        for (AnnotationMirror mirror : field.getAnnotationMirrors()) {
+            String qualifiedName = qualifiedName(mirror);
+            id |= RelationDescriptor.ID.equals(qualifiedName);
+            if (RelationDescriptor.COLUMN.equals(qualifiedName)) {
+                notNull = isFalse(mirror, "nullable");
+            }
+            JpaAnnotation annotation = RelationDescriptor.annotationOf(qualifiedName);
+            if (annotation == null) {
+                continue;
+            }
+            annotations.add(annotation);
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : mirror.getElementValues().entrySet()) {
+                String attribute = value.getKey().getSimpleName().toString();
+                if ("mappedBy".equals(attribute)) {
+                    mappedBy = String.valueOf(value.getValue().getValue());
+                } else if (annotation == JpaAnnotation.JoinTable && "name".equals(attribute)) {
+                    joinTable = String.valueOf(value.getValue().getValue());
+                }
+            }
+        }
+        Types types = processingEnv.getTypeUtils();
+        String targetType = null;
+        if (annotations.contains(JpaAnnotation.OneToMany) || annotations.contains(JpaAnnotation.ManyToMany)) {
+            TypeMirror elementType = elementType(field.asType());
+            targetType = elementType == null ? null : types.erasure(elementType).toString();
+        } else if (annotations.contains(JpaAnnotation.ManyToOne) || annotations.contains(JpaAnnotation.OneToOne)) {
+            targetType = types.erasure(field.asType()).toString();
+        }
+        return new RelationDescriptor(Collections.unmodifiableSet(annotations), id, notNull, mappedBy, joinTable, targetType);
+    }
+
+    private static boolean isFalse(AnnotationMirror mirror, String attribute) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : mirror.getElementValues().entrySet()) {
+            if (attribute.equals(value.getKey().getSimpleName().toString())) {
+                return Boolean.FALSE.equals(value.getValue().getValue());
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    private static TypeMirror elementType(TypeMirror type) {
+        if (!(type instanceof DeclaredType)) {
+            return null;
+        }
+        List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+        return arguments.size() == 1 ? arguments.get(0) : null;
+    }
+
+    private boolean isCollection(TypeMirror type) {
+        Types types = processingEnv.getTypeUtils();
+        TypeElement collection = processingEnv.getElementUtils().getTypeElement("java.util.Collection");
+        return types.isAssignable(types.erasure(type), types.erasure(collection.asType()));
+    }
+
+    private static boolean hasAnnotation(Element element, String qualifiedName) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (qualifiedName.equals(qualifiedName(mirror))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String qualifiedName(AnnotationMirror mirror) {
+        return ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+    }
+
+    /**
+     * Looks related entities up among the compiled classes; same answers as {@code DomainNodeIndex}
+     * gives in the IDE.
+     */
+    private final class ElementLookup implements EntityLookup {
+
+        @NotNull
+        @Override
+        public String findInverseManyToMany(String qualifiedName, String ownerQualifiedName) {
+            TypeElement entity = processingEnv.getElementUtils().getTypeElement(qualifiedName);
+            if (entity == null) {
+                return "";
+            }
+            String last = "";
+            for (VariableElement field : persistentFields(entity)) {
+                RelationDescriptor relation = relation(field);
+                if (relation.is(JpaAnnotation.ManyToMany)) {
+                    last = ConverterSources.firstUpperCase(field.getSimpleName().toString());
+                    if (ownerQualifiedName.equals(relation.getTargetType())) {
+                        return last;
+                    }
+                }
+            }
+            return last;
+        }
+
+        @Nullable
+        @Override
+        public String findIdAccessor(String qualifiedName) {
+            TypeElement entity = processingEnv.getElementUtils().getTypeElement(qualifiedName);
+            if (entity == null) {
+                return null;
+            }
+            for (VariableElement field : persistentFields(entity)) {
+                if (hasAnnotation(field, RelationDescriptor.ID)) {
+                    return ConverterSources.firstUpperCase(field.getSimpleName().toString());
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Only DTOs generated by this processor are known: the fields of the related
+         * {@link GenerateDto} entity that are not excluded.
+         */
+        @Override
+        public boolean hasDtoProperty(String qualifiedName, String dtoQualifiedName, String accessor) {
+            TypeElement entity = processingEnv.getElementUtils().getTypeElement(qualifiedName);
+            GenerateDto spec = entity == null ? null : entity.getAnnotation(GenerateDto.class);
+            if (spec == null) {
+                return false;
+            }
+            List<String> excluded = Arrays.asList(spec.exclude());
+            for (VariableElement field : persistentFields(entity)) {
+                String name = field.getSimpleName().toString();
+                if (accessor.equals(ConverterSources.firstUpperCase(name))) {
+                    return !excluded.contains(name);
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.sbt.domain.plugin.dialog;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * One selected entity field as the converter rules of {@link ConverterSources} see it.
+ * Built from a {@code NodeField} in the IDE and from a field element by {@link DtoProcessor}.
+ */
+final class DtoProperty {
+
+    private final String name;
+    private final String accessor;
+    private final String type;
+    private final String childType;
+    private final boolean collection;
+    private final boolean directional;
+    private final boolean lazy;
+    private final RelationDescriptor relation;
+
+    /**
+     * @param accessor  capitalized name used after {@code get} and {@code set}
+     * @param type      declared type, used for scalars
+     * @param childType simple name of the related entity, {@code null} for scalars
+     */
+    DtoProperty(String name, String accessor, String type, @Nullable String childType, boolean collection,
+                boolean directional, boolean lazy, @NotNull RelationDescriptor relation) {
+        this.name = name;
+        this.accessor = accessor;
+        this.type = type;
+        this.childType = childType;
+        this.collection = collection;
+        this.directional = directional;
+        this.lazy = lazy;
+        this.relation = relation;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getAccessor() {
+        return accessor;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    @Nullable
+    String getChildType() {
+        return childType;
+    }
+
+    boolean isRelation() {
+        return childType != null;
+    }
+
+    boolean isCollection() {
+        return collection;
+    }
+
+    /**
+     * Whether the field is the dependent side of a bidirectional relation.
+     */
+    boolean isDirectional() {
+        return directional;
+    }
+
+    /**
+     * Whether the DTO side of the collection is converted on first access.
+     */
+    boolean isLazy() {
+        return lazy;
+    }
+
+    @NotNull
+    RelationDescriptor getRelation() {
+        return relation;
+    }
+}
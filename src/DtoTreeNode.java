@@ -0,0 +1,85 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.sbt.domain.plugin.node.NodeField;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Node of the DTO tree in {@link DtoDialog}. Keeps its children by field, in selection order,
+ * so membership checks do not scan the children. Children of a relation field are the
+ * fields chosen from the related entity.
+ */
+final class DtoTreeNode extends DefaultMutableTreeNode {
+
+    private final Map<NodeField, DtoTreeNode> selected = new LinkedHashMap<>();
+    private boolean lazy;
+
+    DtoTreeNode(Object userObject) {
+        super(userObject);
+    }
+
+    NodeField getField() {
+        return (NodeField) getUserObject();
+    }
+
+    /**
+     * Whether the collection relation of this node is converted on first access.
+     */
+    boolean isLazy() {
+        return lazy;
+    }
+
+    void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Snapshot of the fields selected under this node, safe to hand to a background thread.
+     */
+    FieldSelection toSelection() {
+        Map<NodeField, FieldSelection> nested = new LinkedHashMap<>();
+        Set<NodeField> lazyFields = new HashSet<>();
+        for (DtoTreeNode child : selected.values()) {
+            if (!child.selected.isEmpty()) {
+                nested.put(child.getField(), child.toSelection());
+            }
+            if (child.isLazy()) {
+                lazyFields.add(child.getField());
+            }
+        }
+        return new FieldSelection(selected.keySet(), nested, lazyFields);
+    }
+
+    @Nullable
+    DtoTreeNode find(NodeField field) {
+        return selected.get(field);
+    }
+
+    /**
+     * Appends a child for the field without notifying any tree model.
+     */
+    DtoTreeNode addField(NodeField field) {
+        DtoTreeNode child = new DtoTreeNode(field);
+        selected.put(field, child);
+        add(child);
+        return child;
+    }
+
+    /**
+     * Detaches the child without notifying any tree model.
+     */
+    void removeField(DtoTreeNode child) {
+        selected.remove(child.getField());
+        remove(child);
+    }
+
+    @Override
+    public String toString() {
+        return lazy ? super.toString() + " (lazy)" : super.toString();
+    }
+}
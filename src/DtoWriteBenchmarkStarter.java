@@ -0,0 +1,181 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.intellij.ide.impl.ProjectUtil;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.*;
+import com.intellij.psi.codeStyle.JavaCodeStyleManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Headless write benchmark, {@code idea dto-write-benchmark <project dir> <package> <fields> <runs>}:
+ * writes a synthetic DTO with the given number of fields, each with a getter and a setter, into an
+ * existing package of the project, once through {@link GeneratedSourceWriter} as a single text and
+ * once member by member, parsing, adding and shortening every field and accessor on its own as the
+ * dialog used to, without reformatting. Each run writes a new file and deletes it afterwards; the
+ * first run of each way warms up and is not counted. Prints the median and minimum time of both
+ * ways with the parses and shortening passes {@link GenerationMetrics} counted in their last run,
+ * and the metrics of the last single-text run.
+ */
+public final class DtoWriteBenchmarkStarter implements ApplicationStarter {
+
+    private static final List<String> TYPES = Arrays.asList(
+            "java.lang.String", "java.math.BigDecimal", "java.time.LocalDate", "java.lang.Long");
+
+    @Override
+    public String getCommandName() {
+        return "dto-write-benchmark";
+    }
+
+    @Override
+    public int getRequiredModality() {
+        return NOT_IN_EDT;
+    }
+
+    @Override
+    public void main(@NotNull String[] args) {
+        if (args.length != 5) {
+            System.err.println("Usage: dto-write-benchmark <project dir> <package> <fields> <runs>");
+            System.exit(2);
+        }
+        int status = 0;
+        try {
+            benchmark(args[1], args[2], Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+        } catch (RuntimeException e) {
+            System.err.println("DTO write benchmark failed: " + e.getMessage());
+            e.printStackTrace();
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    private static void benchmark(String projectDir, String packageName, int fields, int runs) {
+        if (fields <= 0 || runs <= 0) {
+            throw new IllegalArgumentException("fields and runs must be positive");
+        }
+        AtomicReference<Project> opened = new AtomicReference<>();
+        ApplicationManager.getApplication().invokeAndWait(
+                () -> opened.set(ProjectUtil.openOrImport(projectDir, null, false)));
+        Project project = opened.get();
+        if (project == null) {
+            throw new IllegalArgumentException("Cannot open project " + projectDir);
+        }
+        PsiDirectory directory = ReadAction.nonBlocking(() -> new PackageDirectories(project).find(packageName))
+                .inSmartMode(project)
+                .executeSynchronously();
+
+        String singleName = "Synthetic" + fields + "SingleTextDTO";
+        String perMemberName = "Synthetic" + fields + "PerMemberDTO";
+        GeneratedSource source = syntheticDto(packageName, singleName, fields);
+        List<String> members = syntheticMembers(fields);
+        long[] single = new long[runs];
+        long[] perMember = new long[runs];
+        GenerationMetrics metrics = GenerationMetrics.getInstance();
+        GenerationMetrics.Run lastSingle = null;
+        GenerationMetrics.Run lastPerMember = null;
+        for (int i = 0; i <= runs; i++) {
+            GenerationMetrics.Run singleRun = metrics.startRun("write benchmark " + singleName);
+            long singleNanos = timeWrite(project, () -> singleRun.within(
+                    () -> new GeneratedSourceWriter(project).write(directory, source)));
+            metrics.finishRun(singleRun);
+            delete(project, directory, source.getFileName());
+            GenerationMetrics.Run perMemberRun = metrics.startRun("write benchmark " + perMemberName);
+            long perMemberNanos = timeWrite(project, () -> perMemberRun.within(
+                    () -> writePerMember(project, directory, perMemberName, members)));
+            metrics.finishRun(perMemberRun);
+            delete(project, directory, perMemberName + ".java");
+            if (i > 0) {
+                single[i - 1] = singleNanos;
+                perMember[i - 1] = perMemberNanos;
+                lastSingle = singleRun;
+                lastPerMember = perMemberRun;
+            }
+        }
+        System.out.printf("%d fields, %d runs after one warm-up run%n", fields, runs);
+        System.out.printf("%-12s %10s %10s %8s %12s%n", "write", "median ms", "min ms", "parses", "shortenings");
+        print("single text", single, lastSingle);
+        print("per member", perMember, lastPerMember);
+        System.out.println();
+        System.out.println(lastSingle.summary());
+    }
+
+    private static long timeWrite(Project project, Runnable write) {
+        long[] nanos = new long[1];
+        ApplicationManager.getApplication().invokeAndWait(() -> WriteCommandAction.runWriteCommandAction(project, () -> {
+            long start = System.nanoTime();
+            write.run();
+            PsiDocumentManager.getInstance(project).commitAllDocuments();
+            nanos[0] = System.nanoTime() - start;
+        }));
+        return nanos[0];
+    }
+
+    private static void delete(Project project, PsiDirectory directory, String fileName) {
+        ApplicationManager.getApplication().invokeAndWait(() -> WriteCommandAction.runWriteCommandAction(project, () -> {
+            PsiFile file = directory.findFile(fileName);
+            if (file != null) {
+                file.delete();
+            }
+        }));
+    }
+
+    /**
+     * The former write path: an empty class, then one parse, insert and reference shortening per member,
+     * counted like {@link GeneratedSourceWriter} counts its own.
+     */
+    private static void writePerMember(Project project, PsiDirectory directory, String className, List<String> members) {
+        PsiElementFactory factory = JavaPsiFacade.getElementFactory(project);
+        JavaCodeStyleManager manager = JavaCodeStyleManager.getInstance(project);
+        GenerationMetrics metrics = GenerationMetrics.getInstance();
+        PsiClass dtoClass = JavaDirectoryService.getInstance().createClass(directory, className);
+        for (String member : members) {
+            PsiMember created = member.contains("(")
+                    ? factory.createMethodFromText(member, dtoClass)
+                    : factory.createFieldFromText(member, dtoClass);
+            metrics.count(GenerationMetrics.Counter.TEXTS_PARSED, 1);
+            manager.shortenClassReferences(dtoClass.add(created));
+            metrics.count(GenerationMetrics.Counter.SHORTENING_PASSES, 1);
+        }
+    }
+
+    private static GeneratedSource syntheticDto(String packageName, String className, int fields) {
+        JavaSourceEmitter emitter = new JavaSourceEmitter(packageName, "public class " + className, className);
+        for (String member : syntheticMembers(fields)) {
+            emitter.member(member);
+        }
+        return emitter.emit();
+    }
+
+    /**
+     * Field, getter and setter of every synthetic field, with fully qualified types as the generator writes them.
+     */
+    private static List<String> syntheticMembers(int fields) {
+        List<String> members = new ArrayList<>(fields * 3);
+        for (int i = 0; i < fields; i++) {
+            String type = TYPES.get(i % TYPES.size());
+            String name = "field" + i;
+            String accessor = ConverterSources.firstUpperCase(name);
+            members.add("private " + type + " " + name + ";");
+            members.add("public " + type + " get" + accessor + "() {\n return " + name + "; }");
+            members.add("public void set" + accessor + "(" + type + " " + name + ") {\n this." + name + " = " + name + "; }");
+        }
+        return members;
+    }
+
+    private static void print(String title, long[] nanos, GenerationMetrics.Run lastRun) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-12s %10d %10d %8d %12d%n", title, TimeUnit.NANOSECONDS.toMillis(sorted[sorted.length / 2]),
+                TimeUnit.NANOSECONDS.toMillis(sorted[0]), lastRun.getCount(GenerationMetrics.Counter.TEXTS_PARSED),
+                lastRun.getCount(GenerationMetrics.Counter.SHORTENING_PASSES));
+    }
+}
@@ -0,0 +1,29 @@
+package com.sbt.domain.plugin.dialog;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Facts about other entities the converter rules need, by qualified class name.
+ */
+interface EntityLookup {
+
+    /**
+     * Capitalized name of the ManyToMany field of {@code qualifiedName} that points back to
+     * {@code ownerQualifiedName}, or an empty string when there is none to set.
+     */
+    @NotNull
+    String findInverseManyToMany(String qualifiedName, String ownerQualifiedName);
+
+    /**
+     * Capitalized accessor name of the identifier of the entity, {@code null} when it has none or is unknown.
+     */
+    @Nullable
+    String findIdAccessor(String qualifiedName);
+
+    /**
+     * Whether {@code dtoQualifiedName}, the DTO of the entity {@code qualifiedName}, has the property
+     * with the capitalized accessor name {@code accessor}; {@code false} when the DTO is unknown.
+     */
+    boolean hasDtoProperty(String qualifiedName, String dtoQualifiedName, String accessor);
+}
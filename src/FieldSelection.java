@@ -0,0 +1,65 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.sbt.domain.plugin.node.NodeField;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the fields chosen for a DTO, together with the fields chosen
+ * from related entities under each relation field and the collections marked lazy.
+ */
+final class FieldSelection {
+
+    private static final FieldSelection EMPTY = new FieldSelection(Collections.emptyList());
+
+    private final List<NodeField> fields;
+    private final Map<NodeField, FieldSelection> nested;
+    private final Set<NodeField> lazy;
+
+    FieldSelection(Collection<NodeField> fields) {
+        this(fields, Collections.emptyMap());
+    }
+
+    FieldSelection(Collection<NodeField> fields, Map<NodeField, FieldSelection> nested) {
+        this(fields, nested, Collections.emptySet());
+    }
+
+    FieldSelection(Collection<NodeField> fields, Map<NodeField, FieldSelection> nested, Set<NodeField> lazy) {
+        this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+        this.nested = Collections.unmodifiableMap(new LinkedHashMap<>(nested));
+        this.lazy = Collections.unmodifiableSet(new HashSet<>(lazy));
+    }
+
+    List<NodeField> getFields() {
+        return fields;
+    }
+
+    /**
+     * Fields chosen under a relation field; empty when none were.
+     */
+    @NotNull
+    FieldSelection getNested(NodeField relation) {
+        FieldSelection selection = nested.get(relation);
+        return selection != null ? selection : EMPTY;
+    }
+
+    /**
+     * Collection relations whose DTO side is a view converted on first access
+     * instead of a list converted together with the owner.
+     */
+    boolean isLazy(NodeField field) {
+        return lazy.contains(field);
+    }
+
+    boolean isEmpty() {
+        return fields.isEmpty();
+    }
+}
@@ -0,0 +1,55 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.sbt.domain.plugin.node.DomainTreeNode;
+import com.sbt.domain.plugin.node.NodeField;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Which fields of an entity go into its DTO when generating without picking them by hand.
+ */
+enum FieldSelectionPolicy {
+
+    ALL_FIELDS("all fields") {
+        @Override
+        boolean accept(NodeField field) {
+            return true;
+        }
+    },
+    SCALAR_FIELDS("non-relation fields") {
+        @Override
+        boolean accept(NodeField field) {
+            return !field.isRelation();
+        }
+    },
+    SCALARS_AND_OWNING_RELATIONS("non-relation fields plus owning-side relations") {
+        @Override
+        boolean accept(NodeField field) {
+            return !field.isRelation() || !field.isDirectional();
+        }
+    };
+
+    private final String title;
+
+    FieldSelectionPolicy(String title) {
+        this.title = title;
+    }
+
+    abstract boolean accept(NodeField field);
+
+    List<NodeField> select(DomainTreeNode node) {
+        List<NodeField> selected = new ArrayList<>();
+        for (NodeField field : node.getFields()) {
+            if (accept(field)) {
+                selected.add(field);
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public String toString() {
+        return title;
+    }
+}
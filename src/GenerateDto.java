@@ -0,0 +1,46 @@
+package com.sbt.domain.plugin.dialog;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an entity whose DTO and converters {@link DtoProcessor} generates at compile time,
+ * with the rules the DTO dialog uses, so they are rebuilt whenever the entity changes.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface GenerateDto {
+
+    /**
+     * Package of the generated classes; the package of the entity when empty.
+     */
+    String dtoPackage() default "";
+
+    /**
+     * Prefix of the generated class names; the simple name of the entity when empty.
+     */
+    String name() default "";
+
+    /**
+     * Fields left out of the DTO.
+     */
+    String[] exclude() default {};
+
+    boolean identityContext() default false;
+
+    boolean fieldMask() default false;
+
+    boolean streaming() default false;
+
+    boolean compact() default false;
+
+    boolean packFlags() default false;
+
+    boolean jsonCodec() default false;
+
+    int batchSize() default DtoGenerationOptions.DEFAULT_BATCH_SIZE;
+}
@@ -0,0 +1,54 @@
+package com.sbt.domain.plugin.dialog;
+
+/**
+ * Text of one generated top-level class.
+ */
+final class GeneratedSource {
+
+    private final String className;
+    private final String text;
+    private final boolean shared;
+    private final boolean testSource;
+
+    GeneratedSource(String className, String text) {
+        this(className, text, false);
+    }
+
+    /**
+     * @param shared the class is used by all generated classes of its package; a writer brings
+     *               an existing copy up to date once and skips it for the other sources
+     */
+    GeneratedSource(String className, String text, boolean shared) {
+        this(className, text, shared, false);
+    }
+
+    /**
+     * @param testSource the class belongs to a test source root of the module, not next to the converters
+     */
+    GeneratedSource(String className, String text, boolean shared, boolean testSource) {
+        this.className = className;
+        this.text = text;
+        this.shared = shared;
+        this.testSource = testSource;
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    String getFileName() {
+        return className + ".java";
+    }
+
+    String getText() {
+        return text;
+    }
+
+    boolean isShared() {
+        return shared;
+    }
+
+    boolean isTestSource() {
+        return testSource;
+    }
+}
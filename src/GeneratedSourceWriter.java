@@ -0,0 +1,291 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.intellij.codeInsight.AnnotationUtil;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.*;
+import com.intellij.psi.codeStyle.CodeStyleManager;
+import com.intellij.psi.codeStyle.JavaCodeStyleManager;
+import com.intellij.psi.util.PsiTreeUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Write phase of generation: every new source is parsed once, put into the
+ * directory with a single PSI change and has its references shortened once.
+ * Existing files are only patched where they differ from the generated text;
+ * shared support classes are brought up to date once per writer, so copies
+ * generated by an older version follow the converters using them.
+ * Generated members carry {@code @Generated(GENERATOR)} when the module has a
+ * {@code Generated} annotation; only members so marked are ever removed, so
+ * members written by hand survive regeneration.
+ * Must be called inside a write command.
+ */
+final class GeneratedSourceWriter {
+
+    static final String GENERATOR = "com.sbt.domain.plugin";
+    private static final String[] MARKERS = {"javax.annotation.processing.Generated", "javax.annotation.Generated"};
+
+    private final Project project;
+    private final PsiFileFactory fileFactory;
+    private final PsiDocumentManager documentManager;
+    private final JavaCodeStyleManager manager;
+    private final CodeStyleManager formatter;
+    private final GenerationMetrics metrics = GenerationMetrics.getInstance();
+    private final Set<PsiFile> sharedWritten = new HashSet<>();
+    private final Map<PsiDirectory, String> markers = new HashMap<>();
+
+    GeneratedSourceWriter(Project project) {
+        this.project = project;
+        fileFactory = PsiFileFactory.getInstance(project);
+        documentManager = PsiDocumentManager.getInstance(project);
+        manager = JavaCodeStyleManager.getInstance(project);
+        formatter = CodeStyleManager.getInstance(project);
+    }
+
+    void write(DtoGenerationPlan plan) {
+        for (GeneratedSource source : plan.getSources()) {
+            write(source.isTestSource() ? testDirectory(plan) : plan.getDirectory(), source);
+        }
+    }
+
+    /**
+     * Package directory under the test source root of the plan matching the package of its
+     * directory, created when missing.
+     */
+    private static PsiDirectory testDirectory(DtoGenerationPlan plan) {
+        PsiDirectory directory = Objects.requireNonNull(plan.getTestRoot(), "plan has no test source root");
+        PsiPackage psiPackage = JavaDirectoryService.getInstance().getPackage(plan.getDirectory());
+        for (String segment : StringUtil.split(psiPackage == null ? "" : psiPackage.getQualifiedName(), ".")) {
+            PsiDirectory subdirectory = directory.findSubdirectory(segment);
+            directory = subdirectory != null ? subdirectory : directory.createSubdirectory(segment);
+        }
+        return directory;
+    }
+
+    PsiFile write(PsiDirectory directory, GeneratedSource source) {
+        PsiFile file = directory.findFile(source.getFileName());
+        if (file != null && source.isShared() && !sharedWritten.add(file)) {
+            return file;
+        }
+        if (file == null) {
+            file = (PsiFile) directory.add(mark(parse(source), directory));
+            metrics.count(GenerationMetrics.Counter.PSI_ELEMENTS_CREATED, 1);
+            shortenReferences(file);
+            file = (PsiFile) reformat(file);
+            if (source.isShared()) {
+                sharedWritten.add(file);
+            }
+            return file;
+        }
+        PsiJavaFile desired = mark(parse(source), directory);
+        shortenReferences(desired);
+        desired = (PsiJavaFile) reformat(desired);
+        if (sameText(file, desired)) {
+            return file;
+        }
+        PsiClass[] classes = file instanceof PsiJavaFile ? ((PsiJavaFile) file).getClasses() : PsiClass.EMPTY_ARRAY;
+        PsiClass[] desiredClasses = desired.getClasses();
+        if (classes.length != 1 || desiredClasses.length != 1
+                || !Objects.equals(classes[0].getName(), desiredClasses[0].getName())) {
+            replaceText(file, desired.getText());
+            return file;
+        }
+        addImports((PsiJavaFile) file, desired);
+        update(classes[0], desiredClasses[0]);
+        manager.removeRedundantImports((PsiJavaFile) file);
+        return file;
+    }
+
+    private PsiJavaFile parse(GeneratedSource source) {
+        long start = System.nanoTime();
+        PsiFile file = fileFactory.createFileFromText(source.getFileName(), JavaFileType.INSTANCE, source.getText());
+        metrics.record(GenerationMetrics.Phase.PARSING, System.nanoTime() - start);
+        metrics.count(GenerationMetrics.Counter.TEXTS_PARSED, 1);
+        return (PsiJavaFile) file;
+    }
+
+    /**
+     * Annotates every member of the generated classes with the marker available in the module
+     * of {@code directory}; leaves them unmarked when the module has none.
+     */
+    private PsiJavaFile mark(PsiJavaFile file, PsiDirectory directory) {
+        String marker = marker(directory);
+        if (marker.isEmpty()) {
+            return file;
+        }
+        PsiAnnotation annotation = JavaPsiFacade.getElementFactory(project)
+                .createAnnotationFromText("@" + marker + "(\"" + GENERATOR + "\")", file);
+        for (PsiClass psiClass : file.getClasses()) {
+            for (PsiMember member : PsiTreeUtil.getChildrenOfTypeAsList(psiClass, PsiMember.class)) {
+                PsiModifierList modifiers = member.getModifierList();
+                if (modifiers != null) {
+                    modifiers.addBefore(annotation, modifiers.getFirstChild());
+                }
+            }
+        }
+        return file;
+    }
+
+    private String marker(PsiDirectory directory) {
+        return markers.computeIfAbsent(directory, d -> {
+            JavaPsiFacade facade = JavaPsiFacade.getInstance(project);
+            for (String marker : MARKERS) {
+                if (facade.findClass(marker, d.getResolveScope()) != null) {
+                    return marker;
+                }
+            }
+            return "";
+        });
+    }
+
+    private static boolean isGenerated(PsiMember member) {
+        PsiModifierList modifiers = member.getModifierList();
+        if (modifiers == null) {
+            return false;
+        }
+        for (String marker : MARKERS) {
+            PsiAnnotation annotation = modifiers.findAnnotation(marker);
+            if (annotation != null && GENERATOR.equals(AnnotationUtil.getDeclaredStringAttributeValue(annotation, "value"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void shortenReferences(PsiElement element) {
+        int qualified = countQualifiedReferences(element);
+        long start = System.nanoTime();
+        manager.shortenClassReferences(element);
+        metrics.record(GenerationMetrics.Phase.SHORTEN_REFERENCES, System.nanoTime() - start);
+        metrics.count(GenerationMetrics.Counter.SHORTENING_PASSES, 1);
+        metrics.count(GenerationMetrics.Counter.REFERENCES_SHORTENED, qualified - countQualifiedReferences(element));
+    }
+
+    private static int countQualifiedReferences(PsiElement element) {
+        int qualified = 0;
+        for (PsiJavaCodeReferenceElement reference : PsiTreeUtil.findChildrenOfType(element, PsiJavaCodeReferenceElement.class)) {
+            if (reference.isQualified() && !(reference.getParent() instanceof PsiJavaCodeReferenceElement)) {
+                qualified++;
+            }
+        }
+        return qualified;
+    }
+
+    private PsiElement reformat(PsiElement element) {
+        long start = System.nanoTime();
+        PsiElement formatted = formatter.reformat(element);
+        metrics.record(GenerationMetrics.Phase.REFORMAT, System.nanoTime() - start);
+        return formatted;
+    }
+
+    /**
+     * Brings an existing class to the generated one member by member. Members are matched by
+     * kind, name and parameter types; only those whose text differs are replaced, missing ones
+     * are added after their generated predecessor and the rest are removed if they carry the
+     * generator marker; unmarked ones were written by hand or by a version without markers and
+     * stay. Untouched members keep their PSI, so indexes and incremental compilation see only the
+     * real change.
+     */
+    private void update(PsiClass existing, PsiClass desired) {
+        replaceIfChanged(existing, existing.getDocComment(), desired.getDocComment());
+        replaceIfChanged(existing, existing.getModifierList(), desired.getModifierList());
+        replaceIfChanged(existing, existing.getExtendsList(), desired.getExtendsList());
+        replaceIfChanged(existing, existing.getImplementsList(), desired.getImplementsList());
+
+        Map<String, PsiMember> remaining = new LinkedHashMap<>();
+        for (PsiMember member : PsiTreeUtil.getChildrenOfTypeAsList(existing, PsiMember.class)) {
+            remaining.put(key(member), member);
+        }
+        PsiElement anchor = existing.getLBrace();
+        for (PsiMember member : PsiTreeUtil.getChildrenOfTypeAsList(desired, PsiMember.class)) {
+            PsiMember current = remaining.remove(key(member));
+            if (current == null) {
+                anchor = reformat(existing.addAfter(member, anchor));
+                metrics.count(GenerationMetrics.Counter.PSI_ELEMENTS_CREATED, 1);
+            } else if (!sameText(current, member)) {
+                anchor = reformat(current.replace(member));
+                metrics.count(GenerationMetrics.Counter.PSI_ELEMENTS_CREATED, 1);
+            } else {
+                anchor = current;
+            }
+        }
+        for (PsiMember stale : remaining.values()) {
+            if (isGenerated(stale)) {
+                stale.delete();
+            }
+        }
+    }
+
+    private void replaceIfChanged(PsiClass owner, @Nullable PsiElement current, @Nullable PsiElement desired) {
+        if (current == null && desired == null || current != null && desired != null && sameText(current, desired)) {
+            return;
+        }
+        if (desired == null) {
+            current.delete();
+        } else if (current == null) {
+            owner.addBefore(desired, owner.getFirstChild());
+        } else {
+            current.replace(desired);
+        }
+    }
+
+    private static void addImports(PsiJavaFile file, PsiJavaFile desired) {
+        PsiImportList imports = file.getImportList();
+        PsiImportList desiredImports = desired.getImportList();
+        if (imports == null || desiredImports == null) {
+            return;
+        }
+        Set<String> present = new HashSet<>();
+        for (PsiImportStatementBase statement : imports.getAllImportStatements()) {
+            present.add(statement.getText());
+        }
+        for (PsiImportStatementBase statement : desiredImports.getAllImportStatements()) {
+            if (!present.contains(statement.getText())) {
+                imports.add(statement);
+            }
+        }
+    }
+
+    private void replaceText(PsiFile file, String text) {
+        Document document = documentManager.getDocument(file);
+        if (document == null) {
+            throw new IllegalStateException("Cannot edit " + file.getVirtualFile().getPath());
+        }
+        document.setText(text);
+        documentManager.commitDocument(document);
+    }
+
+    private static String key(PsiMember member) {
+        if (member instanceof PsiField) {
+            return "field " + ((PsiField) member).getName();
+        }
+        if (member instanceof PsiMethod) {
+            StringBuilder key = new StringBuilder("method ").append(((PsiMethod) member).getName()).append('(');
+            for (PsiParameter parameter : ((PsiMethod) member).getParameterList().getParameters()) {
+                PsiTypeElement type = parameter.getTypeElement();
+                key.append(type == null ? "" : type.getText()).append(',');
+            }
+            return key.append(')').toString();
+        }
+        if (member instanceof PsiClass) {
+            return "class " + ((PsiClass) member).getName();
+        }
+        return member.getText();
+    }
+
+    /**
+     * Text comparison that ignores formatting, so a file only reformatted by hand is left alone.
+     */
+    private static boolean sameText(PsiElement current, PsiElement desired) {
+        return StringUtil.equalsIgnoreWhitespaces(current.getText(), desired.getText());
+    }
+}
@@ -0,0 +1,219 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Time and counters of the phases of DTO generation. Every generation task has its own run and
+ * attaches it to the threads working for it with {@link Run#within}; measurements taken on a thread
+ * without a run, such as descriptors computed for the dialog trees, are not charged to any run.
+ * A summary of each finished run goes to the IDE log and the last {@value #HISTORY} runs are kept
+ * for percentiles. Phases nest, e.g. annotation scanning happens while planning, so every phase
+ * time is inclusive. Safe to record from any thread.
+ */
+final class GenerationMetrics {
+
+    private static final Logger LOG = Logger.getInstance(GenerationMetrics.class);
+    private static final GenerationMetrics INSTANCE = new GenerationMetrics();
+    private static final int HISTORY = 100;
+
+    enum Phase {
+        PACKAGE_LOOKUP("package index lookup"),
+        NODE_LOOKUP("findNodeInTree"),
+        ANNOTATION_SCAN("annotation scanning"),
+        TEXT_BUILDING("text building"),
+        PARSING("parsing"),
+        SHORTEN_REFERENCES("shortenClassReferences"),
+        REFORMAT("reformat"),
+        WRITE_ACTION("write action");
+
+        private final String title;
+
+        Phase(String title) {
+            this.title = title;
+        }
+    }
+
+    enum Counter {
+        SOURCES_PLANNED("sources planned"),
+        PSI_ELEMENTS_CREATED("PSI elements created"),
+        TEXTS_PARSED("texts parsed"),
+        SHORTENING_PASSES("shortening passes"),
+        REFERENCES_SHORTENED("references shortened");
+
+        private final String title;
+
+        Counter(String title) {
+            this.title = title;
+        }
+    }
+
+    private final Deque<Run> finished = new ArrayDeque<>();
+    private final ThreadLocal<Run> attached = new ThreadLocal<>();
+
+    static GenerationMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts a run of its own, even while other runs are open.
+     */
+    Run startRun(String title) {
+        return new Run(title);
+    }
+
+    void finishRun(Run run) {
+        synchronized (finished) {
+            if (run.nanos >= 0) {
+                return;
+            }
+            run.nanos = System.nanoTime() - run.started;
+            finished.addLast(run);
+            if (finished.size() > HISTORY) {
+                finished.removeFirst();
+            }
+        }
+        LOG.info(run.summary());
+    }
+
+    /**
+     * Records into the run attached to the current thread, if any.
+     */
+    void record(Phase phase, long nanos) {
+        Run run = attached.get();
+        if (run != null) {
+            run.record(phase, nanos);
+        }
+    }
+
+    void count(Counter counter, long count) {
+        Run run = attached.get();
+        if (run != null) {
+            run.count(counter, count);
+        }
+    }
+
+    /**
+     * Summary of the last run followed by the 50th, 90th and 99th percentile of every phase
+     * over the kept runs.
+     */
+    @NotNull
+    String report() {
+        List<Run> runs;
+        synchronized (finished) {
+            runs = new ArrayList<>(finished);
+        }
+        if (runs.isEmpty()) {
+            return "No DTO generation has run yet";
+        }
+        StringBuilder report = new StringBuilder(runs.get(runs.size() - 1).summary())
+                .append("\n\nOver the last ").append(runs.size()).append(" runs (p50 / p90 / p99, ms):\n");
+        long[] totals = new long[runs.size()];
+        for (int i = 0; i < runs.size(); i++) {
+            totals[i] = runs.get(i).nanos;
+        }
+        appendPercentiles(report, "total", totals);
+        for (Phase phase : Phase.values()) {
+            long[] values = new long[runs.size()];
+            for (int i = 0; i < runs.size(); i++) {
+                values[i] = runs.get(i).phases[phase.ordinal()].sum();
+            }
+            appendPercentiles(report, phase.title, values);
+        }
+        return report.toString();
+    }
+
+    private static void appendPercentiles(StringBuilder report, String title, long[] nanos) {
+        Arrays.sort(nanos);
+        report.append(String.format("%-24s %8d / %8d / %8d%n", title,
+                millis(percentile(nanos, 50)), millis(percentile(nanos, 90)), millis(percentile(nanos, 99))));
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    static final class Run {
+
+        private final String title;
+        private final long started = System.nanoTime();
+        private final LongAdder[] phases = adders(Phase.values().length);
+        private final LongAdder[] counters = adders(Counter.values().length);
+        private long nanos = -1;
+
+        private Run(String title) {
+            this.title = title;
+        }
+
+        private static LongAdder[] adders(int count) {
+            LongAdder[] adders = new LongAdder[count];
+            for (int i = 0; i < count; i++) {
+                adders[i] = new LongAdder();
+            }
+            return adders;
+        }
+
+        void record(Phase phase, long nanos) {
+            phases[phase.ordinal()].add(nanos);
+        }
+
+        void count(Counter counter, long count) {
+            counters[counter.ordinal()].add(count);
+        }
+
+        long getCount(Counter counter) {
+            return counters[counter.ordinal()].sum();
+        }
+
+        /**
+         * Runs {@code work} with this run attached to the current thread.
+         */
+        <T> T within(Supplier<T> work) {
+            ThreadLocal<Run> attached = INSTANCE.attached;
+            Run previous = attached.get();
+            attached.set(this);
+            try {
+                return work.get();
+            } finally {
+                if (previous != null) {
+                    attached.set(previous);
+                } else {
+                    attached.remove();
+                }
+            }
+        }
+
+        void within(Runnable work) {
+            within(() -> {
+                work.run();
+                return null;
+            });
+        }
+
+        String summary() {
+            StringBuilder summary = new StringBuilder("DTO generation '").append(title).append("' took ")
+                    .append(millis(nanos)).append(" ms");
+            for (Phase phase : Phase.values()) {
+                summary.append(String.format("%n  %-24s %8d ms", phase.title, millis(phases[phase.ordinal()].sum())));
+            }
+            for (Counter counter : Counter.values()) {
+                summary.append(String.format("%n  %-24s %8d", counter.title, counters[counter.ordinal()].sum()));
+            }
+            return summary.toString();
+        }
+    }
+}
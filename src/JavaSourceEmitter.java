@@ -0,0 +1,41 @@
+package com.sbt.domain.plugin.dialog;
+
+/**
+ * Renders a whole compilation unit as one text, so that it can be parsed
+ * and inserted into PSI in a single operation.
+ */
+final class JavaSourceEmitter {
+
+    private final StringBuilder text = new StringBuilder();
+    private final String className;
+
+    JavaSourceEmitter(String packageName, String declaration, String className) {
+        this.className = className;
+        if (!packageName.isEmpty()) {
+            text.append("package ").append(packageName).append(";\n\n");
+        }
+        text.append(declaration).append(" {\n");
+    }
+
+    /**
+     * Appends a member; an empty text is skipped, which keeps optional members inline in call chains.
+     */
+    JavaSourceEmitter member(String member) {
+        if (!member.isEmpty()) {
+            text.append('\n').append(member).append('\n');
+        }
+        return this;
+    }
+
+    GeneratedSource emit() {
+        return emit(false);
+    }
+
+    GeneratedSource emit(boolean shared) {
+        return new GeneratedSource(className, text + "}\n", shared);
+    }
+
+    GeneratedSource emitTestSource() {
+        return new GeneratedSource(className, text + "}\n", false, true);
+    }
+}
@@ -0,0 +1,73 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.PackageIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDirectory;
+import com.intellij.psi.PsiManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.model.java.JavaSourceRootType;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Target directories of generated classes, looked up through the package index
+ * once per package and shared by all generators of a run.
+ * Lookups must happen inside a read action.
+ */
+final class PackageDirectories {
+
+    private final Project project;
+    private final Map<String, PsiDirectory> directories = new ConcurrentHashMap<>();
+
+    PackageDirectories(Project project) {
+        this.project = project;
+    }
+
+    @NotNull
+    PsiDirectory find(String packageName) {
+        PsiDirectory directory = directories.get(packageName);
+        if (directory != null && directory.isValid()) {
+            return directory;
+        }
+        long start = System.nanoTime();
+        VirtualFile[] directoriesByPackageName =
+                PackageIndex.getInstance(project)
+                        .getDirectoriesByPackageName(packageName, true);
+        GenerationMetrics.getInstance().record(GenerationMetrics.Phase.PACKAGE_LOOKUP, System.nanoTime() - start);
+        if (directoriesByPackageName.length == 0) {
+            throw new IllegalArgumentException("Package " + packageName + " not found");
+        }
+        directory = PsiManager.getInstance(project)
+                .findDirectory(directoriesByPackageName[0]);
+        if (directory == null) {
+            throw new IllegalArgumentException("Package " + packageName + " not found");
+        }
+        directories.put(packageName, directory);
+        return directory;
+    }
+
+    /**
+     * First test source root of the module holding {@code directory}.
+     *
+     * @throws IllegalArgumentException when the module has none
+     */
+    @NotNull
+    PsiDirectory findTestRoot(PsiDirectory directory) {
+        Module module = ModuleUtilCore.findModuleForPsiElement(directory);
+        List<VirtualFile> roots = module == null
+                ? Collections.emptyList()
+                : ModuleRootManager.getInstance(module).getSourceRoots(JavaSourceRootType.TEST_SOURCE);
+        PsiDirectory root = roots.isEmpty() ? null : PsiManager.getInstance(project).findDirectory(roots.get(0));
+        if (root == null) {
+            throw new IllegalArgumentException("No test source root next to " + directory.getVirtualFile().getPath());
+        }
+        return root;
+    }
+}
@@ -0,0 +1,114 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.sbt.domain.plugin.annotation.JpaAnnotation;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JPA relation and column facts of one entity field. Free of IDE types, so {@link DtoProcessor}
+ * links without the platform; {@link RelationDescriptors} reads descriptors from PSI.
+ */
+final class RelationDescriptor {
+
+    private static final Map<String, JpaAnnotation> ANNOTATIONS = new HashMap<>();
+
+    static final String ID = persistenceName("Id");
+    static final String COLUMN = persistenceName("Column");
+
+    static {
+        for (JpaAnnotation annotation : JpaAnnotation.values()) {
+            ANNOTATIONS.put(annotation.getFull(), annotation);
+        }
+    }
+
+    private final Set<JpaAnnotation> annotations;
+    private final boolean id;
+    private final boolean notNull;
+    private final String mappedBy;
+    private final String joinTable;
+    private final String targetType;
+
+    RelationDescriptor(Set<JpaAnnotation> annotations, boolean id, boolean notNull, @Nullable String mappedBy,
+                       @Nullable String joinTable, @Nullable String targetType) {
+        this.annotations = annotations;
+        this.id = id;
+        this.notNull = notNull;
+        this.mappedBy = mappedBy;
+        this.joinTable = joinTable;
+        this.targetType = targetType;
+    }
+
+    /**
+     * Qualified name of a type or property from the same persistence package as {@link JpaAnnotation},
+     * so generated code follows the project's choice of javax or jakarta persistence.
+     */
+    static String persistenceName(String simpleName) {
+        String oneToMany = JpaAnnotation.OneToMany.getFull();
+        return oneToMany.substring(0, oneToMany.lastIndexOf('.') + 1) + simpleName;
+    }
+
+    /**
+     * The relation annotation with the given qualified name, {@code null} for any other annotation.
+     */
+    @Nullable
+    static JpaAnnotation annotationOf(String qualifiedName) {
+        return ANNOTATIONS.get(qualifiedName);
+    }
+
+    boolean is(JpaAnnotation annotation) {
+        return annotations.contains(annotation);
+    }
+
+    Set<JpaAnnotation> getAnnotations() {
+        return annotations;
+    }
+
+    /**
+     * Whether the field is the entity identifier.
+     */
+    boolean isId() {
+        return id;
+    }
+
+    /**
+     * Whether the column is declared {@code @Column(nullable = false)}.
+     */
+    boolean isNotNull() {
+        return notNull;
+    }
+
+    /**
+     * Owning side of a ManyToMany that maps its own join table.
+     */
+    boolean isJoinTableManyToMany() {
+        return is(JpaAnnotation.ManyToMany) && is(JpaAnnotation.JoinTable);
+    }
+
+    /**
+     * Inverse side of a bidirectional relation, i.e. the one declaring {@code mappedBy}.
+     */
+    boolean isInverseSide() {
+        return mappedBy != null;
+    }
+
+    @Nullable
+    String getMappedBy() {
+        return mappedBy;
+    }
+
+    @Nullable
+    String getJoinTable() {
+        return joinTable;
+    }
+
+    /**
+     * Qualified name of the related entity: the element type for collections, the field type otherwise.
+     */
+    @Nullable
+    String getTargetType() {
+        return targetType;
+    }
+}
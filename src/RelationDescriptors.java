@@ -0,0 +1,75 @@
+package com.sbt.domain.plugin.dialog;
+
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.*;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.sbt.domain.plugin.PsiHelper;
+import com.sbt.domain.plugin.annotation.JpaAnnotation;
+import com.sbt.domain.plugin.node.NodeField;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.EnumSet;
+
+/**
+ * Reads {@link RelationDescriptor}s from the annotations of PSI fields once and caches them
+ * on the field until its file changes. Must be used inside a read action.
+ */
+final class RelationDescriptors {
+
+    private static final Key<CachedValue<RelationDescriptor>> DESCRIPTOR = Key.create("dto.relation.descriptor");
+
+    private RelationDescriptors() {
+    }
+
+    @NotNull
+    static RelationDescriptor of(NodeField field) {
+        return of((PsiField) field.getCurrentPsiElement());
+    }
+
+    @NotNull
+    static RelationDescriptor of(PsiField psiField) {
+        return CachedValuesManager.getCachedValue(psiField, DESCRIPTOR,
+                () -> CachedValueProvider.Result.create(compute(psiField), psiField));
+    }
+
+    private static RelationDescriptor compute(PsiField psiField) {
+        long start = System.nanoTime();
+        EnumSet<JpaAnnotation> annotations = EnumSet.noneOf(JpaAnnotation.class);
+        boolean id = false;
+        boolean notNull = false;
+        String mappedBy = null;
+        String joinTable = null;
+        for (PsiAnnotation a : psiField.getAnnotations()) {
+            String qualifiedName = a.getQualifiedName();
+            id |= RelationDescriptor.ID.equals(qualifiedName);
+            if (RelationDescriptor.COLUMN.equals(qualifiedName)) {
+                PsiAnnotationMemberValue nullable = a.findDeclaredAttributeValue("nullable");
+                notNull = nullable != null && "false".equals(nullable.getText());
+            }
+            JpaAnnotation annotation = RelationDescriptor.annotationOf(qualifiedName);
+            if (annotation == null) {
+                continue;
+            }
+            annotations.add(annotation);
+            for (PsiNameValuePair vp : a.getParameterList().getAttributes()) {
+                if ("mappedBy".equals(vp.getName())) {
+                    mappedBy = vp.getLiteralValue();
+                } else if (annotation == JpaAnnotation.JoinTable && "name".equals(vp.getName())) {
+                    joinTable = vp.getLiteralValue();
+                }
+            }
+        }
+        String targetType = null;
+        if (annotations.contains(JpaAnnotation.OneToMany) || annotations.contains(JpaAnnotation.ManyToMany)) {
+            PsiType elementType = PsiHelper.getCollectionGenericType(psiField);
+            targetType = elementType == null ? null : elementType.getCanonicalText();
+        } else if (annotations.contains(JpaAnnotation.ManyToOne) || annotations.contains(JpaAnnotation.OneToOne)) {
+            targetType = psiField.getType().getCanonicalText();
+        }
+        GenerationMetrics.getInstance().record(GenerationMetrics.Phase.ANNOTATION_SCAN, System.nanoTime() - start);
+        return new RelationDescriptor(Collections.unmodifiableSet(annotations), id, notNull, mappedBy, joinTable, targetType);
+    }
+}
@@ -0,0 +1,101 @@
+package com.sbt.domain.plugin.dialog;
+
+/**
+ * Helper classes the generated converters depend on. They are generated into the
+ * DTO package next to the converters, so projects need no extra runtime library.
+ */
+final class RuntimeSupportSources {
+
+    static final String LAZY_CONVERTED_LIST = "LazyConvertedList";
+    static final String FIELD_MASK = "FieldMask";
+
+    private RuntimeSupportSources() {
+    }
+
+    static GeneratedSource lazyConvertedList(String packageName) {
+        return new JavaSourceEmitter(packageName,
+                "/**\n"
+                        + " * Read-only view of a source collection that converts all elements at once on first access\n"
+                        + " * and keeps the result, dropping the source and the conversion function. {@code size()} and\n"
+                        + " * {@code isEmpty()} answer from the source without converting it, but a Hibernate collection\n"
+                        + " * that is not extra-lazy is still loaded from the database for them.\n"
+                        + " * Not thread safe, like the DTOs holding it.\n"
+                        + " */\n"
+                        + "public final class " + LAZY_CONVERTED_LIST + "<S, T> extends java.util.AbstractList<T> implements java.util.RandomAccess",
+                LAZY_CONVERTED_LIST)
+                .member("private java.util.Collection<? extends S> source;")
+                .member("private java.util.function.Function<? super java.util.Collection<? extends S>, ? extends java.util.List<T>> converter;")
+                .member("private java.util.List<T> converted;")
+                .member("public " + LAZY_CONVERTED_LIST + "(java.util.Collection<? extends S> source, "
+                        + "java.util.function.Function<? super java.util.Collection<? extends S>, ? extends java.util.List<T>> converter) {\n"
+                        + "this.source = source;\n"
+                        + "this.converter = converter;\n"
+                        + "}")
+                .member("private java.util.List<T> converted() {\n"
+                        + "if (converted == null) {\n"
+                        + "converted = converter.apply(source);\n"
+                        + "source = null;\n"
+                        + "converter = null;\n"
+                        + "}\n"
+                        + "return converted;\n"
+                        + "}")
+                .member("public boolean isConverted() {\n"
+                        + "return converted != null;\n"
+                        + "}")
+                .member("@Override\n"
+                        + "public T get(int index) {\n"
+                        + "return converted().get(index);\n"
+                        + "}")
+                .member("@Override\n"
+                        + "public int size() {\n"
+                        + "return converted != null ? converted.size() : source.size();\n"
+                        + "}")
+                .emit(true);
+    }
+
+    static GeneratedSource fieldMask(String packageName) {
+        return new JavaSourceEmitter(packageName,
+                "/**\n"
+                        + " * Properties of a DTO to convert, by the {@code FIELD_} indexes of the DTO class, with\n"
+                        + " * masks for the related DTOs. Immutable, so masks are built once and shared; a relation\n"
+                        + " * included without a nested mask is converted completely.\n"
+                        + " */\n"
+                        + "public final class " + FIELD_MASK,
+                FIELD_MASK)
+                .member("public static final " + FIELD_MASK + " ALL = new " + FIELD_MASK + "(null, new " + FIELD_MASK + "[0]);")
+                .member("private final java.util.BitSet fields;")
+                .member("private final " + FIELD_MASK + "[] nested;")
+                .member("private " + FIELD_MASK + "(java.util.BitSet fields, " + FIELD_MASK + "[] nested) {\n"
+                        + "this.fields = fields;\n"
+                        + "this.nested = nested;\n"
+                        + "}")
+                .member("public static " + FIELD_MASK + " of(int... fields) {\n"
+                        + "java.util.BitSet bits = new java.util.BitSet();\n"
+                        + "for (int field : fields) {\n"
+                        + "bits.set(field);\n"
+                        + "}\n"
+                        + "return new " + FIELD_MASK + "(bits, new " + FIELD_MASK + "[0]);\n"
+                        + "}")
+                .member("/**\n"
+                        + " * Copy of this mask that also includes the relation {@code field}, converted with {@code mask}.\n"
+                        + " */\n"
+                        + "public " + FIELD_MASK + " with(int field, " + FIELD_MASK + " mask) {\n"
+                        + "java.util.BitSet bits = fields;\n"
+                        + "if (bits != null) {\n"
+                        + "bits = (java.util.BitSet) bits.clone();\n"
+                        + "bits.set(field);\n"
+                        + "}\n"
+                        + FIELD_MASK + "[] masks = java.util.Arrays.copyOf(nested, Math.max(nested.length, field + 1));\n"
+                        + "masks[field] = mask;\n"
+                        + "return new " + FIELD_MASK + "(bits, masks);\n"
+                        + "}")
+                .member("public boolean includes(int field) {\n"
+                        + "return fields == null || fields.get(field);\n"
+                        + "}")
+                .member("public " + FIELD_MASK + " nested(int field) {\n"
+                        + FIELD_MASK + " mask = field < nested.length ? nested[field] : null;\n"
+                        + "return mask != null ? mask : ALL;\n"
+                        + "}")
+                .emit(true);
+    }
+}